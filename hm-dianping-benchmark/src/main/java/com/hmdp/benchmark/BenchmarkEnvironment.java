@@ -0,0 +1,92 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.HmDianPingApplication;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IVoucherService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试的运行环境：本地启动一个Redis，Spring容器连接它和MySQL模式的H2内存数据库
+ * 每个基准测试在JMH fork出的独立JVM中运行，在Setup中启动，TearDown中关闭
+ */
+public class BenchmarkEnvironment implements AutoCloseable {
+
+    private final RedisServer redisServer;
+    private final ConfigurableApplicationContext context;
+
+    /**
+     * @param properties 额外的配置，例如 hmdp.seckill.order-queue=memory
+     */
+    public BenchmarkEnvironment(String... properties) throws IOException {
+        int port = freePort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+
+        List<String> all = new ArrayList<>();
+        all.add("spring.redis.host=localhost");
+        all.add("spring.redis.port=" + port);
+        all.add("spring.redis.password=");
+        all.add("spring.datasource.driver-class-name=org.h2.Driver");
+        all.add("spring.datasource.url=jdbc:h2:mem:hmdp;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        all.add("spring.datasource.username=sa");
+        all.add("spring.datasource.password=");
+        all.add("spring.datasource.schema=classpath:benchmark-schema.sql");
+        all.add("spring.datasource.initialization-mode=always");
+        /*关闭和被测路径无关的后台任务，日志只输出警告，避免日志本身成为瓶颈*/
+        all.add("hmdp.cache.warm-up.enabled=false");
+        all.add("hmdp.seckill.reconcile.enabled=false");
+        all.add("logging.level.com.hmdp=warn");
+        for (String property : properties) {
+            all.add(property);
+        }
+        context = new SpringApplicationBuilder(HmDianPingApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(all.toArray(new String[0]))
+                .run();
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /**
+     * 新建一张正在秒杀中的秒杀券，库存足够整个基准测试使用
+     */
+    public Long createSeckillVoucher(int stock) {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("benchmark");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(200L);
+        voucher.setType(1);
+        voucher.setStock(stock);
+        voucher.setBeginTime(LocalDateTime.now().minusDays(1));
+        voucher.setEndTime(LocalDateTime.now().plusDays(1));
+        getBean(IVoucherService.class).addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            context.close();
+        } finally {
+            redisServer.stop();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
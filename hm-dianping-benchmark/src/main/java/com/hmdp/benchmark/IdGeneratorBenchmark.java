@@ -0,0 +1,41 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.IdGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单号的生成，分别测试 RedisIdWorker 和本地的雪花算法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class IdGeneratorBenchmark {
+
+    @Param({"redis", "snowflake"})
+    public String generator;
+
+    private BenchmarkEnvironment environment;
+    private IdGenerator idGenerator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment("hmdp.id.generator=" + generator);
+        idGenerator = environment.getBean(IdGenerator.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public Long nextId() {
+        return idGenerator.nextId("order");
+    }
+}
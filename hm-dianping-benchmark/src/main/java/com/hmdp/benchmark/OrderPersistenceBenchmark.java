@@ -0,0 +1,62 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单写入数据库：一批订单在一个事务中去重、扣减库存、多行INSERT
+ * 使用MySQL模式的H2，结果只用于比较同一台机器上修改前后的差异，不代表MySQL的绝对性能
+ * 一次操作是一批订单，每个订单的耗时 = 每次操作的耗时 / batchSize
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class OrderPersistenceBenchmark {
+
+    @Param({"1", "50", "200"})
+    public int batchSize;
+
+    private BenchmarkEnvironment environment;
+    private IVoucherOrderService voucherOrderService;
+    private Long voucherId;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        /*memory模式下没有读取stream的线程，数据库只承受基准测试自己的写入*/
+        environment = new BenchmarkEnvironment("hmdp.seckill.order-queue=memory");
+        voucherOrderService = environment.getBean(IVoucherOrderService.class);
+        voucherId = environment.createSeckillVoucher(Integer.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public Map<Long, String> createVoucherOrders() {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            long id = ids.incrementAndGet();
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(id);
+            voucherOrder.setUserId(id);
+            voucherOrder.setVoucherId(voucherId);
+            voucherOrders.add(voucherOrder);
+        }
+        return voucherOrderService.createVoucherOrders(voucherOrders);
+    }
+}
@@ -0,0 +1,58 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.UserHolder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀接口的完整路径：时间和售罄检查、生成订单号、Lua脚本扣减分片库存、写入订单队列
+ * 每次调用使用一个新的用户，不会因为一人一单被拒绝；库存足够整个测试使用
+ * order-queue 分别测试 Redis Stream 和 JVM 内的通道
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class SeckillBenchmark {
+
+    @Param({"stream", "memory"})
+    public String orderQueue;
+
+    private BenchmarkEnvironment environment;
+    private IVoucherOrderService voucherOrderService;
+    private Long voucherId;
+
+    private final AtomicLong userIds = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class User {
+        private final UserDTO user = new UserDTO();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment("hmdp.seckill.order-queue=" + orderQueue);
+        voucherOrderService = environment.getBean(IVoucherOrderService.class);
+        voucherId = environment.createSeckillVoucher(Integer.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public Result seckill(User state) {
+        state.user.setId(userIds.incrementAndGet());
+        UserHolder.saveUser(state.user);
+        return voucherOrderService.seckillVoucher(voucherId);
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.benchmark.BenchmarkEnvironment;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.aop.framework.AopProxyUtils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单从请求线程交给处理通道的开销
+ * 直接调用 VoucherOrderServiceImpl 的 dispatch，使用真实的通道和通道线程（批量取出后写入H2），和memory模式下的请求线程一样
+ * 所以放在 com.hmdp.service.impl 包中；每个订单使用一个新的用户，均匀分配到各个通道
+ * 通道线程写数据库跟不上时通道会满，dispatch返回false（请求会收到"系统繁忙"），每轮结束后打印各个通道的积压情况
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(7)
+public class OrderHandOffBenchmark {
+
+    private BenchmarkEnvironment environment;
+    private IVoucherOrderService voucherOrderService;
+    private VoucherOrderServiceImpl target;
+    private Long voucherId;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment("hmdp.seckill.order-queue=memory");
+        voucherOrderService = environment.getBean(IVoucherOrderService.class);
+        /*dispatch不是接口方法，要在代理背后的对象上调用*/
+        Object singletonTarget = AopProxyUtils.getSingletonTarget(voucherOrderService);
+        target = (VoucherOrderServiceImpl) (singletonTarget != null ? singletonTarget : voucherOrderService);
+        voucherId = environment.createSeckillVoucher(Integer.MAX_VALUE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printLanes() {
+        for (Map<String, Object> lane : voucherOrderService.laneStats()) {
+            System.out.println(lane);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public boolean dispatch() throws InterruptedException {
+        long id = ids.incrementAndGet();
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(id);
+        voucherOrder.setUserId(id);
+        voucherOrder.setVoucherId(voucherId);
+        /*通道满时不阻塞，和memory模式下请求线程的行为一致*/
+        return target.dispatch(voucherOrder, null);
+    }
+}
@@ -4,11 +4,14 @@ import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @MapperScan("com.hmdp.mapper")
 
 /*暴露代理对象*/
 @EnableAspectJAutoProxy(exposeProxy = true)
+/*开启定时任务，用于秒杀库存对账*/
+@EnableScheduling
 @SpringBootApplication
 public class HmDianPingApplication {
 
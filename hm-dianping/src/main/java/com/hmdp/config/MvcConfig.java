@@ -1,19 +1,31 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillAdmissionInterceptor;
+import com.hmdp.utils.SessionCache;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SessionCache sessionCache;
+
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
+    /*可以访问运维接口的用户id，逗号分隔，不配置时所有人都不能访问*/
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminUserIds;
 
     /**
      * 增加一个自定义的登录拦截器
@@ -23,7 +35,7 @@ public class MvcConfig implements WebMvcConfigurer {
     public void addInterceptors(InterceptorRegistry registry) {
         /*配置登录状态刷新的拦截器 拦截的请求为所有的请求*/
         /*拦截器默认就是拦截所有请求，也可以配置个 addPathPatterns*/
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+        registry.addInterceptor(new RefreshTokenInterceptor(sessionCache))
                 .addPathPatterns("/**").order(0);
 
         /*配置登录状态检查拦截器  并配置需要拦截检查的请求*/
@@ -37,5 +49,13 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/upload/**",
                         "/voucher/**"
                 ).order(1);
+
+        /*运维接口只允许管理员访问，在登录检查之后执行*/
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns("/admin/**").order(2);
+
+        /*秒杀接口的准入控制，在登录检查之后执行，这时已经知道是哪个用户*/
+        registry.addInterceptor(new SeckillAdmissionInterceptor(seckillAdmission))
+                .addPathPatterns("/voucher-order/seckill/**").order(3);
     }
 }
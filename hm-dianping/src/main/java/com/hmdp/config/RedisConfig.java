@@ -3,18 +3,57 @@ package com.hmdp.config;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
 @Configuration
 public class RedisConfig {
+    /*Redisson和StringRedisTemplate连接同一个Redis*/
+    @Value("${spring.redis.host:localhost}")
+    private String redisHost;
+
+    @Value("${spring.redis.port:6379}")
+    private int redisPort;
+
+    @Value("${spring.redis.password:}")
+    private String redisPassword;
+
     @Bean
     public RedissonClient redissonClient() {
         /*新建一个Config配置类*/
         Config config = new Config();
         /*通过配置类设置一个单点地址（useSingleServer），如果是Redis集群，可调用（useClusterServer）添加集群地址*/
-        config.useSingleServer().setAddress("redis://192.168.109.128:6379").setPassword("123456");
+        config.useSingleServer().setAddress("redis://" + redisHost + ":" + redisPort)
+                .setPassword(redisPassword.isEmpty() ? null : redisPassword);
 
         return Redisson.create(config);
     }
+
+    /**
+     * Redis发布订阅的监听容器，复用StringRedisTemplate的连接工厂
+     * 用于多个节点之间广播本地缓存失效等消息
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    /**
+     * key为字符串，value为原始字节的RedisTemplate，CacheClient用它保存序列化后的缓存
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
 }
@@ -0,0 +1,113 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.BloomFilterGuard;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.LockFactory;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.StockReconciler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 运维监控相关的接口，只有 hmdp.admin.user-ids 中配置的用户可以访问
+ * </p>
+ *
+ * @author Zhu
+ * @since 2023-3-1
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
+
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private LockFactory lockFactory;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
+    @Resource
+    private StockReconciler stockReconciler;
+
+    /**
+     * 布隆过滤器的统计信息
+     * @return 每个过滤器的元素数量、误判率、内存占用
+     */
+    @GetMapping("/bloom-filter")
+    public Result bloomFilterStats() {
+        return Result.ok(bloomFilterGuard.stats());
+    }
+
+    /**
+     * 缓存重建调度器的统计信息
+     * @return 排队、去重、丢弃、失败的任务数量
+     */
+    @GetMapping("/cache-rebuild")
+    public Result cacheRebuildStats() {
+        return Result.ok(cacheRebuildScheduler.stats());
+    }
+
+    /**
+     * 当前的热点key
+     * @return 热点key及其估算的读取次数，是否已经复制到本地
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.stats());
+    }
+
+    /**
+     * 分布式锁的统计信息
+     * @return 每类锁的获取次数、失败和竞争次数、等待和持有时间，总等待时间长的在前面
+     */
+    @GetMapping("/locks")
+    public Result locks() {
+        return Result.ok(lockFactory.stats());
+    }
+
+    /**
+     * 秒杀订单处理通道的统计信息
+     * @return 每个通道的队列长度、最早的订单等待的时间、已处理的订单数
+     */
+    @GetMapping("/order-lanes")
+    public Result orderLanes() {
+        return Result.ok(voucherOrderService.laneStats());
+    }
+
+    /**
+     * 秒杀准入控制的统计信息
+     * @return 放行的请求数和按原因统计的拒绝数
+     */
+    @GetMapping("/seckill-admission")
+    public Result seckillAdmission() {
+        return Result.ok(seckillAdmission.stats());
+    }
+
+    /**
+     * 秒杀库存对账的报告
+     * @return 对账的次数、检查和修复的秒杀券数量、最近发现的Redis与数据库不一致的秒杀券
+     */
+    @GetMapping("/stock-reconcile")
+    public Result stockReconcile() {
+        return Result.ok(stockReconciler.report());
+    }
+}
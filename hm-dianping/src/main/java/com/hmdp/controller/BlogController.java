@@ -8,6 +8,7 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterGuard;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
@@ -31,6 +32,8 @@ public class BlogController {
     private IBlogService blogService;
     @Resource
     private IUserService userService;
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
 
 
     @PostMapping
@@ -40,6 +43,8 @@ public class BlogController {
         blog.setUserId(user.getId());
         // 保存探店博文
         blogService.save(blog);
+        // 加入布隆过滤器
+        bloomFilterGuard.add(BloomFilterGuard.BLOG, blog.getId());
         // 返回id
         return Result.ok(blog.getId());
     }
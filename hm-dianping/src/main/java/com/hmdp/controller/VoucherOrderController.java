@@ -5,10 +5,12 @@ import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.IVoucherService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -32,4 +34,23 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return iVoucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单的处理状态
+     * @param orderId 秒杀接口返回的订单号
+     * @return PENDING 处理中，PERSISTED 下单成功，FAILED 下单失败（reason为失败原因）
+     */
+    @GetMapping("status/{id}")
+    public Result queryOrderStatus(@PathVariable("id") Long orderId) {
+        return iVoucherOrderService.queryOrderStatus(orderId);
+    }
+
+    /**
+     * 长轮询等待秒杀订单处理完成，超时后返回当前的状态，客户端收到PENDING时再次请求
+     * @param orderId 秒杀接口返回的订单号
+     */
+    @GetMapping("status/{id}/wait")
+    public DeferredResult<Result> awaitOrderStatus(@PathVariable("id") Long orderId) {
+        return iVoucherOrderService.awaitOrderStatus(orderId);
+    }
 }
@@ -2,6 +2,11 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +18,14 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 一条INSERT语句批量插入订单
+     */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
+
+    /**
+     * 按优惠券统计订单数量，使用 (voucher_id, user_id) 索引，不需要回表
+     * @return 每张优惠券一行，voucherId 和 sold
+     */
+    List<Map<String, Object>> countByVoucher(@Param("voucherIds") Collection<Long> voucherIds);
 }
@@ -4,6 +4,11 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -15,5 +20,13 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOder(VoucherOrder voucherOrder);
+    String createVoucherOder(VoucherOrder voucherOrder);
+
+    Map<Long, String> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    List<Map<String, Object>> laneStats();
+
+    Result queryOrderStatus(Long orderId);
+
+    DeferredResult<Result> awaitOrderStatus(Long orderId);
 }
@@ -2,7 +2,6 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
@@ -12,19 +11,27 @@ import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterGuard;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HotKeyDetector;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -42,6 +49,16 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -50,18 +67,27 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->{
+        // 批量查询用户，一页博客只查询一次缓存（和最多一次数据库）
+        Map<Long, UserDTO> users = queryUsers(records.stream().map(Blog::getUserId).collect(Collectors.toList()));
+        records.forEach(blog -> {
 //           填充用户信息
-            this.queryBlogUser(blog);
-            //        判断此博客是否被当前用户点赞
-            this.isLiked(blog);
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
         });
+        //        判断这些博客是否被当前用户点赞，通过一次pipeline批量查询
+        this.isLiked(records);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogById(Long id) {
+//        布隆过滤器判断不存在的id，直接返回
+        if (!bloomFilterGuard.mightContain(BloomFilterGuard.BLOG, id)) {
+            return Result.fail("博客不存在");
+        }
 //        通过blogId查询到对应的博客
         Blog blog = getById(id);
 
@@ -86,6 +112,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             return;
         }
         String key = BLOG_LIKED_KEY+blog.getId();
+        hotKeyDetector.record(key);
 
         Double member = stringRedisTemplate.opsForZSet().score(key,user.getId().toString());
 
@@ -94,6 +121,29 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     }
 
+    /**
+     * 批量判断博客是否点赞过，所有的ZSCORE放在一个pipeline中执行
+     * @param blogs
+     */
+    private void isLiked(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()) {
+            return;
+        }
+        byte[] member = user.getId().toString().getBytes(StandardCharsets.UTF_8);
+        blogs.forEach(blog -> hotKeyDetector.record(BLOG_LIKED_KEY + blog.getId()));
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Blog blog : blogs) {
+                connection.zSetCommands().zScore((BLOG_LIKED_KEY + blog.getId()).getBytes(StandardCharsets.UTF_8), member);
+            }
+            return null;
+        });
+//        在Zset中分数不等于空说明用户点赞过
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
     /**
      * 点赞博客
      * @param id  博客id
@@ -113,12 +163,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             if (update){
 //                Zset中，排序的分数按照时间戳来，添加越晚时间戳越大，则排序越后
                 stringRedisTemplate.opsForZSet().add(key,userId.toString(),System.currentTimeMillis());
+                hotKeyDetector.evict(key);
             }
         }else {
 //        如果已点赞，则数据库点赞数-1，且将用户信息从Redis的Set集合中移除
             boolean update = update().setSql("liked = liked-1").eq("id", id).update();
             if (update){
                 stringRedisTemplate.opsForZSet().remove(key,userId.toString());
+                hotKeyDetector.evict(key);
             }
         }
         return Result.ok();
@@ -132,8 +184,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Override
     public Result queryLikedTop5(Long id) {
         String key = BLOG_LIKED_KEY+id;
-//        获取到所有用户的id，为String的类型
-        Set<String> userIds = stringRedisTemplate.opsForZSet().range(key, 0, 4);
+//        获取到所有用户的id，为String的类型，热门博客的点赞排行从本地副本中读取
+        Set<String> userIds = hotKeyDetector.get(key, () -> stringRedisTemplate.opsForZSet().range(key, 0, 4));
 
 //       如果查询到userId集合为空，说明没有人点赞过，返回一个空集合即可
         if (userIds==null || userIds.isEmpty()){
@@ -144,26 +196,37 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         List<Long> userList = userIds.stream()
                 .map(Long::valueOf)
                 .collect(Collectors.toList());
-//        将用户id使用,进行链接
-        String join = StrUtil.join(",", userList);
-
-//        通过id集合在数据库中进行查询，需要指定查询的顺序，例如id5是先点赞的，1是后点赞的，返回的顺序也是要5在前1在后，
-//        但是,mysql默认返回1在前5在后，所以需要Field手动指定：以id排序，顺序为我们从Redis中查询出的字符串
-//        select * from user where id in (5,1) order by FIELD (id,5,1,.,.)
-//        .last方法，在原有的基础上，拼接上最后一条Sql
-//        最后将从数据库拿到的字符串从过Stream流转为UserDto类型返回
-        List<UserDTO> userDTOList = userService.query().in("id", userIds).last("order by Field (id," + join + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+
+//        批量查询用户，返回的map顺序和传入的id顺序一致，也就是点赞的先后顺序，不需要再用order by Field排序
+        List<UserDTO> userDTOList = new ArrayList<>(queryUsers(userList).values());
 
         return Result.ok(userDTOList);
     }
 
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
-        User user = userService.getById(userId);
+        UserDTO user = cacheClient.queryWithPassThrough(CACHE_USER_KEY, userId, UserDTO.class,
+                id -> {
+                    User entity = userService.getById(id);
+                    return entity == null ? null : BeanUtil.copyProperties(entity, UserDTO.class);
+                },
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+        if (user == null) {
+            return;
+        }
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
+
+    /**
+     * 通过缓存批量查询用户，缓存中没有的用一条IN查询从数据库中查询
+     * @param userIds 用户id
+     * @return 用户id到用户的映射，顺序和传入的id一致
+     */
+    private Map<Long, UserDTO> queryUsers(Collection<Long> userIds) {
+        return cacheClient.queryBatch(CACHE_USER_KEY, userIds, UserDTO.class,
+                ids -> userService.listByIds(ids).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
 }
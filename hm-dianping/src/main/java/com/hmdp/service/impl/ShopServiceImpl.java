@@ -10,6 +10,7 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilterGuard;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisData;
 import io.netty.util.internal.StringUtil;
@@ -20,8 +21,6 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -44,8 +43,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
+
     @Override
     public Result queryById(Long id) {
+        /*布隆过滤器判断不存在的id，直接返回，不访问Redis和数据库*/
+        if (!bloomFilterGuard.mightContain(BloomFilterGuard.SHOP, id)) {
+            return Result.fail("店铺不存在");
+        }
 
         Shop shop = null;
         /*解决缓存穿透问题*/
@@ -75,10 +81,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 
 
-    /*创建线程池*/
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
-
     /**
      * 逻辑过期解决缓存击穿
      */
@@ -147,8 +149,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         /*更新数据库中的商铺信息*/
         this.updateById(shop);
 
-        /*删除对应商铺的缓存*/
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        /*删除对应商铺的缓存，本地缓存也要一起删除*/
+        cacheClient.delete(CACHE_SHOP_KEY + id);
 
         return Result.ok();
     }
@@ -15,7 +15,9 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SessionCache;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -47,6 +49,12 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SessionCache sessionCache;
+
+    @Resource
+    private CacheClient cacheClient;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         /*使用正则表达式工具类中的静态方法，判断手机号是否无效*/
@@ -132,6 +140,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         String key = LOGIN_USER_KEY+token;
 
         Boolean delete = stringRedisTemplate.delete(key);
+        /*其他节点的本地缓存中可能还有这个用户*/
+        sessionCache.invalidate(token);
 
         return Result.ok("退出登录成功");
     }
@@ -152,6 +162,10 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         /*调用继承的Mp中的保存方法*/
         this.save(user);
 
+        /*博客中查询用户时可能缓存了这个id不存在的空值，删除后新用户的昵称马上可见*/
+        /*以后修改昵称、头像的地方也要这样删除 cache:user: 缓存，否则要等缓存过期，见RedisConstants.CACHE_USER_TTL*/
+        cacheClient.delete(CACHE_USER_KEY + user.getId());
+
         return user;
     }
 
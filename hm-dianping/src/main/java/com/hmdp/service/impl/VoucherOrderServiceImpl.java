@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -7,24 +8,51 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.config.RedisConfig;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.OrderStatusTracker;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillWindow;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.*;
 
 /**
  * <p>
@@ -45,81 +73,520 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    /*Redisson分布式锁配置对象*/
+    /*订单号生成器，默认是RedisIdWorker，可以配置为本地的雪花算法*/
     @Resource
-    private RedisConfig redisConfig;
+    private IdGenerator idGenerator;
 
+//    声明代理对象，订单在异步线程中保存，无法通过AopContext获取，这里注入延迟加载的代理
+    @Lazy
     @Resource
-    private RedisIdWorker redisIdWorker;
-
-//    声明代理对象
     private IVoucherOrderService proxy;
 
-    /*脚本对象声明和初始化*/
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    /*秒杀库存，库存可能拆分在多个分片中*/
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    /*本地记录的已售罄的秒杀券*/
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillWindow seckillWindow;
+
+    /*订单的处理状态，客户端通过订单号查询*/
+    @Resource
+    private OrderStatusTracker orderStatusTracker;
+
+    /*订单队列的模式：stream（Redis Stream，宕机不丢失订单）或 memory（JVM内的阻塞队列，只适合单节点）*/
+    @Value("${hmdp.seckill.order-queue:stream}")
+    private String orderQueue;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    /*订单处理的通道数量，订单按用户id的哈希分配到通道，每个通道一个线程*/
+    @Value("${hmdp.seckill.order-lanes:4}")
+    private int laneCount;
+
+    /*消费者名称，同一个节点重启后名称不变，才能继续处理自己没有确认的订单*/
+    private String consumerName;
+
+    /**
+     * 订单处理通道，同一个用户的订单总是在同一个通道中按顺序处理，不同用户的订单在多个通道中并行写入数据库
+     * 因此不需要再按用户加分布式锁
+     */
+    private OrderLane[] lanes;
+
+    /*stream模式下已经分配到通道、还没有确认的消息id，重新读取pending列表时跳过它们*/
+    private final Set<String> inflightRecords = ConcurrentHashMap.newKeySet();
+
+    /*有订单因为数据库不可用等原因没有写入，消息留在了pending列表中，下次接管订单时重新扫描pending列表*/
+    private final AtomicBoolean pendingRetry = new AtomicBoolean();
+
+    //    线程池，每个通道一个线程，stream模式下再加一个读取stream的线程
+    private ExecutorService orderExecutor;
+
+    /*stream模式下定时刷新消费者心跳的线程，读取stream的线程可能因为通道满了而阻塞，所以单独一个线程*/
+    private ScheduledExecutorService heartbeatExecutor;
+
+    private static final DefaultRedisScript<Long> STREAM_INIT_SCRIPT;
+    private static final DefaultRedisScript<Long> STREAM_RECLAIM_SCRIPT;
+    private static final DefaultRedisScript<Long> STREAM_TRIM_SCRIPT;
 
     static {
-        /*初始化脚本对象并设置地址和返回值*/
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+        STREAM_INIT_SCRIPT = new DefaultRedisScript<>();
+        STREAM_INIT_SCRIPT.setLocation(new ClassPathResource("order_stream_init.lua"));
+        STREAM_INIT_SCRIPT.setResultType(Long.class);
+        STREAM_RECLAIM_SCRIPT = new DefaultRedisScript<>();
+        STREAM_RECLAIM_SCRIPT.setLocation(new ClassPathResource("order_stream_reclaim.lua"));
+        STREAM_RECLAIM_SCRIPT.setResultType(Long.class);
+        STREAM_TRIM_SCRIPT = new DefaultRedisScript<>();
+        STREAM_TRIM_SCRIPT.setLocation(new ClassPathResource("order_stream_trim.lua"));
+        STREAM_TRIM_SCRIPT.setResultType(Long.class);
     }
 
-    //    新建阻塞队列，参数是初始化的大小
-    private BlockingQueue orderTasks = new ArrayBlockingQueue<VoucherOrder>(1024 * 1024);
-
-    //    线程池，便于新开线程
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newFixedThreadPool(10);
+    private volatile boolean running = true;
 
     //    注解作用：类初始化后，运行的方法
     @PostConstruct
-    private void init() {
-//     类初始化后，新开一个线程运行我们自己写的逻辑
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOderHandler());
+    private void init() throws UnknownHostException {
+        lanes = new OrderLane[Math.max(1, laneCount)];
+        orderExecutor = Executors.newFixedThreadPool(lanes.length + 1);
+//     类初始化后，每个通道新开一个线程运行我们自己写的逻辑
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new OrderLane(i);
+            orderExecutor.submit(lanes[i]);
+        }
+        if (isStreamMode()) {
+            consumerName = InetAddress.getLocalHost().getHostName() + ":" + serverPort;
+            stringRedisTemplate.execute(STREAM_INIT_SCRIPT,
+                    Collections.singletonList(SECKILL_ORDER_STREAM), SECKILL_ORDER_GROUP);
+            heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "order-consumer-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = SECKILL_ORDER_CONSUMER_TTL / 3;
+            heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, 0, interval, TimeUnit.MILLISECONDS);
+            orderExecutor.submit(new VoucherOrderStreamHandler());
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        orderExecutor.shutdown();
+        if (heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+            /*正常停机后其他节点不需要等心跳过期，空闲时间到了就可以接管没有确认的订单*/
+            stringRedisTemplate.delete(SECKILL_ORDER_CONSUMER_KEY + consumerName);
+        }
+    }
+
+    /**
+     * 刷新消费者心跳，心跳存在时其他节点不会接管本节点的订单，即使它们在本地通道中排队了很久
+     */
+    private void heartbeat() {
+        try {
+            stringRedisTemplate.opsForValue().set(SECKILL_ORDER_CONSUMER_KEY + consumerName, "1",
+                    SECKILL_ORDER_CONSUMER_TTL, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.error("刷新订单消费者心跳失败", e);
+        }
+    }
+
+    private boolean isStreamMode() {
+        return "stream".equals(orderQueue);
     }
 
-    //    定义一个匿名内部类，实现任务接口，写出另开线程运行的逻辑
-    private class VoucherOderHandler implements Runnable {
+    /**
+     * 把订单分配到用户所在的通道
+     * @param recordId stream中的消息id，memory模式下为null
+     * @return 是否放入了通道，只有memory模式下通道满了才会返回false
+     * 包内可见，基准测试（OrderHandOffBenchmark）直接调用它测试真实的通道
+     */
+    boolean dispatch(VoucherOrder voucherOrder, String recordId) throws InterruptedException {
+        OrderLane lane = lanes[Math.floorMod(Long.hashCode(voucherOrder.getUserId()), lanes.length)];
+        OrderTask task = new OrderTask(voucherOrder, recordId, System.currentTimeMillis());
+        if (recordId == null) {
+            /*memory模式下在请求线程中调用，队列满了直接返回，不能阻塞请求*/
+            return lane.tasks.offer(task);
+        }
+        /*stream模式下通道满了就阻塞读取stream的线程，订单留在stream中*/
+        lane.tasks.put(task);
+        return true;
+    }
+
+    /**
+     * 查询订单的处理状态，状态在Redis中过期后再查询数据库
+     */
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        Long userId = UserHolder.getUser().getId();
+        Map<String, Object> status = orderStatusTracker.query(orderId, userId);
+        if (status != null) {
+            return Result.ok(status);
+        }
+        VoucherOrder voucherOrder = getById(orderId);
+        if (voucherOrder == null || !userId.equals(voucherOrder.getUserId())) {
+            return Result.fail("订单不存在");
+        }
+        return Result.ok(Collections.singletonMap("status", OrderStatusTracker.PERSISTED));
+    }
+
+    /**
+     * 长轮询等待订单处理完成
+     */
+    @Override
+    public DeferredResult<Result> awaitOrderStatus(Long orderId) {
+        DeferredResult<Result> result = orderStatusTracker.await(orderId, UserHolder.getUser().getId());
+        if (result == null) {
+            /*没有处理中的状态，直接返回查询的结果*/
+            result = new DeferredResult<>();
+            result.setResult(queryOrderStatus(orderId));
+        }
+        return result;
+    }
+
+    /**
+     * 各个通道的统计信息：队列中的订单数、最早的订单已经等待了多久（毫秒）、已经处理的订单数
+     */
+    @Override
+    public List<Map<String, Object>> laneStats() {
+        List<Map<String, Object>> stats = new ArrayList<>(lanes.length);
+        long now = System.currentTimeMillis();
+        for (OrderLane lane : lanes) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            OrderTask head = lane.tasks.peek();
+            item.put("lane", lane.index);
+            item.put("depth", lane.tasks.size());
+            item.put("lagMillis", head == null ? 0 : now - head.enqueuedAt);
+            item.put("processed", lane.processed.get());
+            item.put("batches", lane.batches.get());
+            item.put("lastBatchMillis", lane.lastBatchMillis);
+            stats.add(item);
+        }
+        return stats;
+    }
+
+    /**
+     * 通道中的一个订单
+     */
+    private static class OrderTask {
+        private final VoucherOrder voucherOrder;
+        private final String recordId;
+        private final long enqueuedAt;
+
+        OrderTask(VoucherOrder voucherOrder, String recordId, long enqueuedAt) {
+            this.voucherOrder = voucherOrder;
+            this.recordId = recordId;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    //    定义一个内部类，实现任务接口，写出另开线程运行的逻辑，每个通道一个
+    private class OrderLane implements Runnable {
+
+        private final int index;
+
+        //    阻塞队列，按需增长，不会预先占用内存
+        private final BlockingQueue<OrderTask> tasks = new LinkedBlockingQueue<>(SECKILL_ORDER_LANE_CAPACITY);
+
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private volatile long lastBatchMillis;
+
+        OrderLane(int index) {
+            this.index = index;
+        }
 
         @Override
         public void run() {
-            //       此逻辑一运行就会不停的尝试从阻塞队列中拿voucherOrder对象(因为是阻塞队列，如果发现队列中没有元素则会阻塞，不会一直while)
-            while (true) {
+            List<OrderTask> batch = new ArrayList<>(SECKILL_ORDER_BATCH_SIZE);
+            //       此逻辑一运行就会不停的尝试从阻塞队列中拿订单(因为是阻塞队列，如果发现队列中没有元素则会阻塞，不会一直while)
+            while (running) {
                 try {
-                    /*获取阻塞队列中的订单对象*/
-                    VoucherOrder voucherOrder = (VoucherOrder) orderTasks.take();
+                    /*阻塞等待第一个订单，之后最多再等待一小段时间，凑成一批后一起写入数据库*/
+                    OrderTask first = tasks.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    long deadline = System.currentTimeMillis() + SECKILL_ORDER_BATCH_WAIT;
+                    while (batch.size() < SECKILL_ORDER_BATCH_SIZE) {
+                        /*先把队列中已有的订单直接取出，不需要等待*/
+                        tasks.drainTo(batch, SECKILL_ORDER_BATCH_SIZE - batch.size());
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (batch.size() >= SECKILL_ORDER_BATCH_SIZE || remaining <= 0) {
+                            break;
+                        }
+                        OrderTask next = tasks.poll(remaining, TimeUnit.MILLISECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
                     //提交订单
-                    handleVoucherOrder(voucherOrder);
+                    handleBatch(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
-                    log.error("订单存储至数据库中时发生错误", e);
+                    log.error("订单存储至数据库中时发生错误，通道:{}", index, e);
+                } finally {
+                    batch.clear();
                 }
             }
         }
+
+        /**
+         * 写入数据库，stream模式下只确认已经有结果的订单（写入成功，或者因为库存不足、重复下单等原因被丢弃）
+         * 因为数据库不可用等原因没有写入的订单不确认，留在pending列表中稍后重新处理，Redis中已经扣减了它们的库存
+         */
+        private void handleBatch(List<OrderTask> batch) {
+            long begin = System.currentTimeMillis();
+            List<VoucherOrder> voucherOrders = new ArrayList<>(batch.size());
+            List<String> recordIds = new ArrayList<>(batch.size());
+            for (OrderTask task : batch) {
+                voucherOrders.add(task.voucherOrder);
+                if (task.recordId != null) {
+                    recordIds.add(task.recordId);
+                }
+            }
+            try {
+                Set<Long> completed = handleVoucherOrders(voucherOrders);
+                List<String> acknowledged = new ArrayList<>(recordIds.size());
+                Map<Long, String> abandoned = new HashMap<>();
+                for (OrderTask task : batch) {
+                    if (completed.contains(task.voucherOrder.getId())) {
+                        if (task.recordId != null) {
+                            acknowledged.add(task.recordId);
+                        }
+                    } else if (task.recordId != null) {
+                        pendingRetry.set(true);
+                    } else {
+                        /*memory模式下订单没有别的地方保存，撤销Redis中扣减的库存和下单记录，用户可以重新抢购*/
+                        seckillStockShards.release(task.voucherOrder.getVoucherId(), task.voucherOrder.getUserId());
+                        abandoned.put(task.voucherOrder.getId(), "下单失败");
+                    }
+                }
+                if (!abandoned.isEmpty()) {
+                    orderStatusTracker.complete(abandoned);
+                }
+                if (!acknowledged.isEmpty()) {
+                    stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP,
+                            acknowledged.toArray(new String[0]));
+                }
+            } finally {
+                /*确认失败的消息还在pending列表中，下次扫描pending列表时重新分配*/
+                inflightRecords.removeAll(recordIds);
+            }
+            processed.addAndGet(batch.size());
+            batches.incrementAndGet();
+            lastBatchMillis = System.currentTimeMillis() - begin;
+        }
     }
 
-    //  提交订单至数据库业务代码
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-//        此时因为是新开的子线程，是无法从ThreadLocal中获取UserId的，而只能冲传过来的订单对象中获取
-        Long userId = voucherOrder.getUserId();
-//        获取锁
-        RedissonClient redissonClient = redisConfig.redissonClient();
+    /**
+     * 从Redis Stream中读取订单，分配到各个通道，通道写入数据库后再确认（XACK）
+     * 1. 启动时先处理自己之前读取但没有确认的订单（上次宕机时正在处理的）
+     * 2. 之后读取新的订单，一次最多读取一批
+     * 3. 定期把已经宕机的节点长时间没有确认的订单转移给自己处理，节点宕机后它的订单不会一直卡住
+     * 4. 定期删除已经确认的消息，stream不会无限增长
+     */
+    private class VoucherOrderStreamHandler implements Runnable {
+
+        private long lastReclaim = 0;
+
+        /*启动时和接管了其他节点的订单后，需要扫描一遍自己的pending列表*/
+        private boolean needPendingScan = true;
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    try {
+                        if (needPendingScan) {
+                            dispatchPendingOrders();
+                            needPendingScan = false;
+                        }
+                        if (System.currentTimeMillis() - lastReclaim > SECKILL_ORDER_RECLAIM_INTERVAL) {
+                            lastReclaim = System.currentTimeMillis();
+                            /*上次没有写入数据库的订单还在自己的pending列表中，重新分配到通道*/
+                            if (pendingRetry.getAndSet(false)) {
+                                needPendingScan = true;
+                            }
+                            reclaim();
+                            trim();
+                        }
+                        /*XREADGROUP GROUP g1 consumer COUNT n BLOCK 2000 STREAMS stream.orders >*/
+                        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                                Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                                StreamReadOptions.empty().count(SECKILL_ORDER_BATCH_SIZE).block(Duration.ofSeconds(2)),
+                                StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+                        dispatchRecords(records);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        if (!running) {
+                            return;
+                        }
+                        /*读取失败的消息不会丢失，下次从pending列表中重新读取（例如启动时Redis还不可用）*/
+                        log.error("读取订单stream时发生错误", e);
+                        Thread.sleep(1000);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                /*线程池会吞掉异常，这里记录下来，否则订单会一直积压在stream中却没有任何日志*/
+                log.error("订单stream的消费线程异常退出", e);
+            }
+        }
+
+        /**
+         * 处理分配给自己但还没有确认的订单，从头到尾扫描一遍pending列表
+         */
+        private void dispatchPendingOrders() throws InterruptedException {
+            String lastId = "0";
+            while (running) {
+                /*XREADGROUP GROUP g1 consumer COUNT n STREAMS stream.orders lastId*/
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty().count(SECKILL_ORDER_BATCH_SIZE),
+                        StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.from(lastId)));
+                if (records == null || records.isEmpty()) {
+                    return;
+                }
+                dispatchRecords(records);
+                lastId = records.get(records.size() - 1).getId().getValue();
+            }
+        }
+
+        /**
+         * 接管已经宕机（心跳过期）的节点长时间没有确认的订单，接管后在自己的pending列表中处理
+         */
+        private void reclaim() {
+            Long claimed = stringRedisTemplate.execute(STREAM_RECLAIM_SCRIPT,
+                    Collections.singletonList(SECKILL_ORDER_STREAM),
+                    SECKILL_ORDER_GROUP, consumerName,
+                    SECKILL_ORDER_RECLAIM_IDLE.toString(), String.valueOf(SECKILL_ORDER_BATCH_SIZE),
+                    SECKILL_ORDER_CONSUMER_KEY, String.valueOf(SECKILL_ORDER_RECLAIM_SCAN));
+            if (claimed != null && claimed > 0) {
+                log.warn("接管了其他节点未确认的订单，数量:{}", claimed);
+                needPendingScan = true;
+            }
+        }
+
+        /**
+         * 删除已经确认的订单消息，每个节点都会执行，重复执行没有影响
+         */
+        private void trim() {
+            long deleted = 0;
+            for (int round = 0; round < SECKILL_ORDER_TRIM_ROUNDS; round++) {
+                Long count = stringRedisTemplate.execute(STREAM_TRIM_SCRIPT,
+                        Collections.singletonList(SECKILL_ORDER_STREAM),
+                        SECKILL_ORDER_GROUP, String.valueOf(SECKILL_ORDER_TRIM_BATCH));
+                deleted += count == null ? 0 : count;
+                if (count == null || count < SECKILL_ORDER_TRIM_BATCH) {
+                    break;
+                }
+            }
+            if (deleted > 0) {
+                log.debug("删除了已经确认的订单消息，数量:{}", deleted);
+            }
+        }
 
-//        获取锁，锁的对象是userid
-        RLock lock = redissonClient.getLock("order:" + userId);
-        boolean tryLock = lock.tryLock();
+        private void dispatchRecords(List<MapRecord<String, Object, Object>> records) throws InterruptedException {
+            if (records == null) {
+                return;
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                String recordId = record.getId().getValue();
+                /*已经在通道中等待写入的消息不重复分配*/
+                if (!inflightRecords.contains(recordId)) {
+                    VoucherOrder voucherOrder = parse(record);
+                    if (voucherOrder == null) {
+                        /*无法解析的消息永远写不进数据库，确认掉，避免每次扫描pending列表都卡在它上面*/
+                        log.error("订单消息格式错误，已丢弃，id:{}，内容:{}", recordId, record.getValue());
+                        stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, recordId);
+                        continue;
+                    }
+                    inflightRecords.add(recordId);
+                    dispatch(voucherOrder, recordId);
+                }
+            }
+        }
 
-        if (!tryLock){
-            log.error("出现了重复下单的可能");
+        /**
+         * 把消息转换为订单，内容不完整（例如消息已经被删除）或者格式错误时返回null
+         */
+        private VoucherOrder parse(MapRecord<String, Object, Object> record) {
+            Map<Object, Object> value = record.getValue();
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            try {
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+                if (voucherOrder.getId() == null || voucherOrder.getUserId() == null || voucherOrder.getVoucherId() == null) {
+                    return null;
+                }
+                return voucherOrder;
+            } catch (Exception e) {
+                return null;
+            }
         }
+    }
 
-//        原本是通过获取代理对象。通过事务来处理。但是在子线程中是无法获取的，只能在主线程中提前获取
+    /**
+     * 批量提交订单至数据库业务代码，完成后更新每个订单的处理状态
+     * @return 已经有结果的订单id，数据库不可用等原因没有写入的订单不在其中，它们的状态保持处理中
+     */
+    private Set<Long> handleVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Map<Long, String> results = new LinkedHashMap<>();
+//        同一个用户的订单总是在同一个通道中按顺序处理，不需要按用户加分布式锁，重复订单在事务中通过查询数据库过滤
+//        多个节点同时处理同一个用户的订单时（例如接管订单），由 (voucher_id, user_id) 的唯一索引兜底
+        try {
+//            通代理对象来提交订单具有事务功能
+            Map<Long, String> failures = proxy.createVoucherOrders(voucherOrders);
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                results.put(voucherOrder.getId(), failures.get(voucherOrder.getId()));
+            }
+        } catch (Exception e) {
+//            整批失败时改为逐个保存，避免一个有问题的订单导致整批订单丢失
+            log.error("批量保存订单失败，改为逐个保存，订单数量:{}", voucherOrders.size(), e);
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                try {
+                    results.put(voucherOrder.getId(), createSingle(voucherOrder));
+                } catch (DataIntegrityViolationException ex) {
+//                    订单数据本身有问题，重试也不会成功
+                    log.error("保存订单失败，订单id:{}", voucherOrder.getId(), ex);
+                    results.put(voucherOrder.getId(), "下单失败");
+                } catch (Exception ex) {
+//                    数据库暂时不可用（例如连接池超时），不记录结果，由调用方决定稍后重试
+                    log.error("保存订单失败，稍后重试，订单id:{}", voucherOrder.getId(), ex);
+                }
+            }
+        }
         try {
-//            通代理对象来提交订单具有事务功能，并且代理对象必须是主线程才能获取的
-            proxy.createVoucherOder(voucherOrder);
-        } finally {
-            lock.unlock();
+            orderStatusTracker.complete(results);
+        } catch (Exception e) {
+            /*订单已经写入数据库，状态更新失败不影响订单，客户端查询时会一直是处理中，直到状态过期*/
+            log.error("更新订单状态失败，订单数量:{}", results.size(), e);
         }
+        return new HashSet<>(results.keySet());
+    }
 
+    /**
+     * 保存一个订单，和其他节点同时写入同一个用户的订单时会被唯一索引拦截，
+     * 这时对方的事务已经提交，再判断一次是同一个订单（重复投递）还是重复下单
+     */
+    private String createSingle(VoucherOrder voucherOrder) {
+        try {
+            return proxy.createVoucherOder(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            return proxy.createVoucherOder(voucherOrder);
+        }
     }
 
 
@@ -131,53 +598,88 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
-//        执行lua脚本，因为不需要传key，所以第二个参数传了一个空list而不是null
+//        不在秒杀时间内直接拒绝，开始和结束时间缓存在本地，不需要访问Redis和数据库
+        SeckillWindow.Status status = seckillWindow.check(voucherId);
+        if (status != SeckillWindow.Status.OPEN) {
+            return Result.fail(status == SeckillWindow.Status.NOT_STARTED ? "秒杀尚未开始"
+                    : status == SeckillWindow.Status.ENDED ? "秒杀已经结束" : "秒杀券不存在");
+        }
+//        已经售罄的秒杀券直接拒绝，不需要访问Redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+//        生成订单号，stream模式下订单在lua脚本中和扣减库存一起写入stream
         Long userId = UserHolder.getUser().getId();
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                userId.toString());
+        Long orderId = idGenerator.nextId("order");
+//        执行lua脚本扣减库存，分片模式下在用户所在的分片中扣减
+        int resultInt = seckillStockShards.reserve(voucherId, userId, orderId,
+                isStreamMode() ? SECKILL_ORDER_STREAM : null);
+
+//        库存不足时确认所有分片都没有库存了，再标记售罄
+        if (resultInt == 1 && seckillStockShards.remaining(voucherId) <= 0) {
+            soldOutRegistry.markSoldOut(voucherId);
+        }
 
-//        将lua脚本返回值转为int便于判断,如果lua脚本返回的不是0，说明可能是库存不足或者已经重复下单过
-        int resultInt = result.intValue();
+//        如果lua脚本返回的不是0，说明可能是库存不足或者已经重复下单过
 
         if (resultInt != 0) {
             return Result.fail(resultInt == 1 ? "库存不足" : "不允许重复购买");
         }
 
-//        到这说明购买正常，生成订单号便于返回给下单用户和封装订单信息
-        Long orderId = redisIdWorker.nextId("order");
+//        到这说明购买正常，stream模式下订单已经在stream中了，记录订单正在处理中后直接返回订单号
+//        客户端拿到订单号后可以查询处理结果
+        if (isStreamMode()) {
+            orderStatusTracker.pending(orderId, userId);
+            return Result.ok(orderId);
+        }
 //        封装订单信息，另开线程，阻塞队列 异步保存到数据库中
         VoucherOrder voucherOrder = new VoucherOrder();
         voucherOrder.setId(orderId);
         voucherOrder.setUserId(userId);
         voucherOrder.setVoucherId(voucherId);
 
-//        将初始化好的订单存入阻塞队列，此时秒杀业务已经结束了，剩下的交给阻塞队列和异步线程执行
-        orderTasks.add(voucherOrder);
-
-//        获取代理对象，方便订单的事务提交
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-
-
+//        将初始化好的订单存入用户所在通道的阻塞队列，此时秒杀业务已经结束了，剩下的交给阻塞队列和异步线程执行
+        boolean dispatched;
+        try {
+            dispatched = dispatch(voucherOrder, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dispatched = false;
+        }
+        if (!dispatched) {
+//            通道满了，订单没有交给后台线程，撤销Redis中扣减的库存和下单记录，用户可以稍后重试
+            seckillStockShards.release(voucherId, userId);
+            return Result.fail("系统繁忙，请稍后再试");
+        }
+//        订单可能已经处理完了，pending不会覆盖已经完成的状态
+        orderStatusTracker.pending(orderId, userId);
 
         return Result.ok(orderId);
     }
 
 
+    /**
+     * 创建一个订单
+     * @return 失败原因，成功时返回null
+     */
     @Transactional
-    public void createVoucherOder(VoucherOrder voucherOrder) {
+    public String createVoucherOder(VoucherOrder voucherOrder) {
 
         /*虽然在Redis中已经判断过库存和用户是否重复下单，但是为了保险还是在数据库的层面上再进行判断一次*/
         Long userId = voucherOrder.getUserId();
         /*如果是抢购大优惠券，则需要判断用户是否已经下过单*/
-        Long count = query().eq("user_id", userId)
-                .eq("voucher_id", voucherOrder.getVoucherId()).count();
+        VoucherOrder existing = query().select("id")
+                .eq("user_id", userId)
+                .eq("voucher_id", voucherOrder.getVoucherId())
+                .one();
 
-        if (count > 0) {
+        if (existing != null) {
+            /*同一个订单被重复投递（例如写入数据库后、确认消息前宕机），订单已经保存成功了*/
+            if (existing.getId().equals(voucherOrder.getId())) {
+                return null;
+            }
             log.error("用户重复下单");
-            return;
+            return "不允许重复购买";
         }
 
 
@@ -194,12 +696,95 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         /*如果没成功*/
         if (!isSuccess) {
             log.error("库存不足");
+            return "库存不足";
         }
 
 
 
         /*使用MP将订单类写入数据库*/
         save(voucherOrder);
+        return null;
+    }
 
+    /**
+     * 批量创建订单，一批订单在一个事务中完成
+     * 1. 一次查询过滤掉已经存在的订单
+     * 2. 按优惠券分组，每张优惠券只执行一次 stock = stock - k
+     * 3. 一条多行INSERT写入所有订单
+     * @return 没有写入的订单id到失败原因
+     */
+    @Transactional
+    public Map<Long, String> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Map<Long, String> failures = new HashMap<>();
+        /*同一批中同一个用户对同一张优惠券的订单只保留第一个*/
+        Map<String, VoucherOrder> distinct = new LinkedHashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            VoucherOrder kept = distinct.putIfAbsent(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId(), voucherOrder);
+            /*同一个订单在一批中出现两次时只保存一次，不算重复下单*/
+            if (kept != null && !kept.getId().equals(voucherOrder.getId())) {
+                failures.put(voucherOrder.getId(), "不允许重复购买");
+            }
+        }
+
+        /*一次查询出这批用户在这些优惠券上已经存在的订单，虽然Redis中已经判断过，但是为了保险还是在数据库的层面上再判断一次*/
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = voucherOrders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        List<VoucherOrder> existing = query().select("id", "user_id", "voucher_id")
+                .in("user_id", userIds)
+                .in("voucher_id", voucherIds)
+                .list();
+        for (VoucherOrder order : existing) {
+            VoucherOrder duplicate = distinct.remove(order.getUserId() + ":" + order.getVoucherId());
+            /*订单号相同说明是已经保存过的订单被重复投递，按成功处理，不能把已经成功的订单改成失败*/
+            if (duplicate != null && !duplicate.getId().equals(order.getId())) {
+                failures.put(duplicate.getId(), "不允许重复购买");
+                log.error("用户重复下单，userId:{}，voucherId:{}", order.getUserId(), order.getVoucherId());
+            }
+        }
+
+        /*按优惠券分组，每张优惠券扣减一次库存*/
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = distinct.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> toSave = new ArrayList<>(distinct.size());
+        ordersOfVoucher.forEach((voucherId, orders) -> {
+            int deducted = deductStock(voucherId, orders.size());
+            if (deducted < orders.size()) {
+                log.error("库存不足，voucherId:{}，丢弃订单数量:{}", voucherId, orders.size() - deducted);
+                orders.subList(deducted, orders.size()).forEach(order -> failures.put(order.getId(), "库存不足"));
+            }
+            toSave.addAll(orders.subList(0, deducted));
+        });
+
+        /*使用一条多行INSERT将订单写入数据库*/
+        if (!toSave.isEmpty()) {
+            getBaseMapper().insertBatch(toSave);
+        }
+        return failures;
+    }
+
+    /**
+     * 扣减库存
+     * @return 实际扣减的数量
+     */
+    private int deductStock(Long voucherId, int count) {
+        /*乐观锁，库存足够整批扣减才成功*/
+        if (updateStock(voucherId, count)) {
+            return count;
+        }
+        /*正常情况下Redis已经保证了不会超卖，走到这说明数据不一致，按数据库中剩余的库存扣减*/
+        SeckillVoucher seckillVoucher = iSeckillVoucherService.getById(voucherId);
+        int available = seckillVoucher == null ? 0 : Math.min(count, seckillVoucher.getStock());
+        if (available <= 0 || !updateStock(voucherId, available)) {
+            return 0;
+        }
+        return available;
+    }
+
+    private boolean updateStock(Long voucherId, int count) {
+        return iSeckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .ge("stock", count)
+                .update();
     }
 }
@@ -7,7 +7,8 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillWindow;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -15,8 +16,6 @@ import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -32,7 +31,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private SeckillWindow seckillWindow;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -55,8 +57,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        /*将优惠券库存加入Redis中*/
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY+voucher.getId(), voucher.getStock().toString());
+        /*将优惠券库存加入Redis中，库存按配置拆分到多个分片*/
+        seckillStockShards.seed(voucher.getId(), voucher.getStock());
+        /*秒杀的开始和结束时间也写入Redis和本地，秒杀时不需要查询数据库*/
+        seckillWindow.publish(voucher.getId(), voucher.getBeginTime(), voucher.getEndTime());
     }
 
 
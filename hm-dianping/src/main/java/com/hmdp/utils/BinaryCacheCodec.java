@@ -0,0 +1,241 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制格式，按类的字段结构（schema）依次写入每个字段的值，不写字段名
+ * <pre>
+ * 固定10字节的头：魔数(1) + 格式(1) + 逻辑过期时间(8，UTC秒*1000+毫秒，没有为-1)
+ * 格式为SCHEMA时：schema指纹(4) + 每个字段(1字节是否为null + 值)
+ * 格式为JSON时：对象的json，用于包含不支持的字段类型的类
+ * </pre>
+ * 读取逻辑过期时间只需要读头部的8个字节，不需要反序列化对象
+ * 类的字段变化后指纹也会变化，旧数据解析时返回null，按未命中重新加载
+ */
+@Slf4j
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    /*json第一个字符不可能是这个字节*/
+    public static final byte MAGIC = (byte) 0xB1;
+
+    private static final byte FORMAT_NULL = 0;
+    private static final byte FORMAT_SCHEMA = 1;
+    private static final byte FORMAT_JSON = 2;
+
+    private static final int HEADER_LENGTH = 10;
+    private static final long NO_EXPIRE = -1L;
+
+    /*每个类解析好的字段结构，不支持的类保存一个空的Schema（fields为null）*/
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object value, LocalDateTime expireTime) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeByte(MAGIC);
+            Schema schema = value == null ? null : schemaOf(value.getClass());
+            if (value == null) {
+                out.writeByte(FORMAT_NULL);
+            } else if (schema.fields == null) {
+                out.writeByte(FORMAT_JSON);
+            } else {
+                out.writeByte(FORMAT_SCHEMA);
+            }
+            out.writeLong(expireTime == null ? NO_EXPIRE : toMillis(expireTime));
+
+            if (value == null) {
+                return buffer.toByteArray();
+            }
+            if (schema.fields == null) {
+                out.write(JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8));
+                return buffer.toByteArray();
+            }
+            out.writeInt(schema.fingerprint);
+            for (Field field : schema.fields) {
+                writeValue(out, field.getType(), field.get(value));
+            }
+            return buffer.toByteArray();
+        } catch (IOException | IllegalAccessException e) {
+            throw new IllegalStateException("缓存序列化失败：" + value.getClass().getName(), e);
+        }
+    }
+
+    @Override
+    public LocalDateTime readExpireTime(byte[] bytes) {
+        long millis = 0;
+        for (int i = 2; i < HEADER_LENGTH; i++) {
+            millis = (millis << 8) | (bytes[i] & 0xFF);
+        }
+        return millis == NO_EXPIRE ? null : fromMillis(millis);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        byte format = bytes[1];
+        if (format == FORMAT_NULL) {
+            return null;
+        }
+        if (format == FORMAT_JSON) {
+            String json = new String(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, StandardCharsets.UTF_8);
+            return JSONUtil.toBean(json, type);
+        }
+
+        Schema schema = schemaOf(type);
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH));
+        try {
+            /*字段结构发生了变化，旧数据没法解析*/
+            if (schema.fields == null || in.readInt() != schema.fingerprint) {
+                return null;
+            }
+            R result = type.getDeclaredConstructor().newInstance();
+            for (Field field : schema.fields) {
+                Object value = readValue(in, field.getType());
+                if (value != null) {
+                    field.set(result, value);
+                }
+            }
+            return result;
+        } catch (Exception e) {
+            log.warn("缓存反序列化失败，类型：{}", type.getName(), e);
+            return null;
+        }
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    private static void writeValue(DataOutputStream out, Class<?> type, Object value) throws IOException {
+        if (value == null) {
+            out.writeBoolean(false);
+            return;
+        }
+        out.writeBoolean(true);
+        if (type == Long.class || type == long.class) {
+            out.writeLong((Long) value);
+        } else if (type == Integer.class || type == int.class) {
+            out.writeInt((Integer) value);
+        } else if (type == Double.class || type == double.class) {
+            out.writeDouble((Double) value);
+        } else if (type == Boolean.class || type == boolean.class) {
+            out.writeBoolean((Boolean) value);
+        } else if (type == String.class) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            LocalDateTime time = (LocalDateTime) value;
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        }
+    }
+
+    private static Object readValue(DataInputStream in, Class<?> type) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        if (type == Long.class || type == long.class) {
+            return in.readLong();
+        } else if (type == Integer.class || type == int.class) {
+            return in.readInt();
+        } else if (type == Double.class || type == double.class) {
+            return in.readDouble();
+        } else if (type == Boolean.class || type == boolean.class) {
+            return in.readBoolean();
+        } else if (type == String.class) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } else {
+            return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+        }
+    }
+
+    private static boolean isSupported(Class<?> type) {
+        return type == Long.class || type == long.class
+                || type == Integer.class || type == int.class
+                || type == Double.class || type == double.class
+                || type == Boolean.class || type == boolean.class
+                || type == String.class || type == LocalDateTime.class;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1000 + time.getNano() / 1000000;
+    }
+
+    private static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                (int) Math.floorMod(millis, 1000L) * 1000000, ZoneOffset.UTC);
+    }
+
+    /**
+     * 类的字段结构：所有非static、非transient的字段，按字段名排序
+     */
+    private static class Schema {
+        private final List<Field> fields;
+        private final int fingerprint;
+
+        Schema(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    list.add(field);
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            boolean supported = true;
+            for (Field field : list) {
+                if (!isSupported(field.getType())) {
+                    supported = false;
+                    break;
+                }
+                field.setAccessible(true);
+                signature.append(';').append(field.getName()).append(':').append(field.getType().getName());
+            }
+            /*有不支持的字段类型，或者没有无参构造，退回json格式*/
+            try {
+                type.getDeclaredConstructor();
+            } catch (NoSuchMethodException e) {
+                supported = false;
+            }
+            this.fields = supported ? list : null;
+            this.fingerprint = signature.toString().hashCode();
+        }
+    }
+}
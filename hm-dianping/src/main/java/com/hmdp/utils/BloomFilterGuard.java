@@ -0,0 +1,185 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_CHANNEL;
+import static com.hmdp.utils.SystemConstants.*;
+
+/**
+ * 使用布隆过滤器防止缓存穿透
+ * 启动时把tb_shop、tb_blog中所有的id加载进布隆过滤器，不存在的id直接拒绝，不会再访问Redis和数据库
+ * 新增商铺、博客时调用add，并广播给其他节点，保证所有节点的过滤器中都有新的id
+ * 广播可能丢失，布隆过滤器不能把存在的id判断为不存在，所以：
+ * 1. 定时从数据库增量加载上次加载之后新增的id
+ * 2. 比上次加载的最大id大一点的id放行，由后面的缓存和数据库判断，下次加载后再拦截
+ *    放行的范围只到 最大id + 上次加载后新增的数量 + 余量，不会让探测很大的随机id的请求绕过过滤器
+ *    超出范围的新id（广播丢失且新增很多时）最多被拦截一个加载间隔
+ */
+@Slf4j
+@Component
+public class BloomFilterGuard implements ApplicationRunner {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    private final Map<String, IdBloomFilter> filters = new LinkedHashMap<>();
+
+    /*每个过滤器已经从数据库加载到的最大id*/
+    private final Map<String, Long> loadedIds = new ConcurrentHashMap<>();
+
+    /*每个过滤器上次加载之后本节点新增和收到广播的id数量*/
+    private final Map<String, AtomicLong> recentInserts = new ConcurrentHashMap<>();
+
+    /*是否已经加载完成，加载完成之前不做拦截，避免把存在的id误判为不存在*/
+    private volatile boolean ready = false;
+
+    @PostConstruct
+    private void init() {
+        filters.put(SHOP, new IdBloomFilter(BLOOM_FILTER_EXPECTED_INSERTIONS, BLOOM_FILTER_FPP));
+        filters.put(BLOG, new IdBloomFilter(BLOOM_FILTER_EXPECTED_INSERTIONS, BLOOM_FILTER_FPP));
+        filters.keySet().forEach(name -> recentInserts.put(name, new AtomicLong()));
+        /*其他节点新增的id，消息格式为 名称:id*/
+        cacheInvalidationBus.subscribe(BLOOM_FILTER_CHANNEL, message -> {
+            int index = message.indexOf(':');
+            String name = message.substring(0, index);
+            IdBloomFilter filter = filters.get(name);
+            if (filter != null) {
+                filter.put(Long.parseLong(message.substring(index + 1)));
+                recentInserts.get(name).incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * 应用启动完成后加载已有的id
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        long begin = System.currentTimeMillis();
+        long shopCount = load(SHOP, shopMapper);
+        long blogCount = load(BLOG, blogMapper);
+        ready = true;
+        log.info("布隆过滤器加载完成，商铺:{}，博客:{}，耗时:{}ms", shopCount, blogCount, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 定时加载上次加载之后新增的id，弥补丢失的广播
+     */
+    @Scheduled(fixedDelayString = "${hmdp.bloom-filter.reload-interval:10000}")
+    public void reload() {
+        if (!ready) {
+            return;
+        }
+        try {
+            load(SHOP, shopMapper);
+            load(BLOG, blogMapper);
+        } catch (Exception e) {
+            log.error("布隆过滤器增量加载失败", e);
+        }
+    }
+
+    /**
+     * id是否可能存在，返回false说明一定不存在
+     */
+    public boolean mightContain(String name, Long id) {
+        if (id == null) {
+            return false;
+        }
+        if (!ready) {
+            return true;
+        }
+        if (filters.get(name).mightContain(id)) {
+            return true;
+        }
+        /*上次加载之后新增的id可能因为广播丢失还不在过滤器中，只放行紧挨着已加载的最大id的一小段*/
+        long loadedId = loadedIds.getOrDefault(name, 0L);
+        return id > loadedId && id <= loadedId + recentInserts.get(name).get() + BLOOM_FILTER_NEW_ID_MARGIN;
+    }
+
+    /**
+     * 新增数据后，把id加入本地的过滤器，并通知其他节点
+     */
+    public void add(String name, Long id) {
+        filters.get(name).put(id);
+        recentInserts.get(name).incrementAndGet();
+        cacheInvalidationBus.broadcast(BLOOM_FILTER_CHANNEL, name + ":" + id);
+    }
+
+    /**
+     * 各个过滤器的统计信息：元素数量、误判率、内存占用
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        filters.forEach((name, filter) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("ready", ready);
+            item.put("loadedId", loadedIds.getOrDefault(name, 0L));
+            item.put("recentInserts", recentInserts.get(name).get());
+            item.put("expectedInsertions", filter.getExpectedInsertions());
+            item.put("insertions", filter.getInsertions());
+            item.put("configuredFpp", filter.getFpp());
+            item.put("currentFpp", filter.currentFpp());
+            item.put("bitSize", filter.getBitSize());
+            item.put("hashCount", filter.getHashCount());
+            item.put("memoryBytes", filter.memoryBytes());
+            stats.put(name, item);
+        });
+        return stats;
+    }
+
+    /**
+     * 从上次加载到的id开始，按id顺序分批查询，每批只查id列，避免一次把整张表读入内存
+     * @return 本次加载的id数量
+     */
+    private <T> long load(String name, BaseMapper<T> mapper) {
+        IdBloomFilter filter = filters.get(name);
+        long lastId = loadedIds.getOrDefault(name, 0L);
+        long count = 0;
+        /*加载开始之前的新增都会被这次加载读到，加载过程中的新增留到下次*/
+        long inserted = recentInserts.get(name).get();
+        while (true) {
+            List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                    .select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + BLOOM_FILTER_LOAD_BATCH));
+            for (Object id : ids) {
+                /*unsigned bigint可能被映射成BigInteger，统一按Number处理*/
+                lastId = ((Number) id).longValue();
+                filter.put(lastId);
+            }
+            count += ids.size();
+            /*先放入过滤器，再更新加载到的id*/
+            loadedIds.put(name, lastId);
+            if (ids.size() < BLOOM_FILTER_LOAD_BATCH) {
+                recentInserts.get(name).addAndGet(-inserted);
+                return count;
+            }
+        }
+    }
+}
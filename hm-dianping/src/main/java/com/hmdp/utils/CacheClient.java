@@ -1,22 +1,33 @@
 package com.hmdp.utils;
 
-import ch.qos.logback.core.util.TimeUtil;
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSON;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.CacheObj;
+import cn.hutool.cache.impl.LRUCache;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Bean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -28,27 +39,103 @@ public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /*缓存的值以字节的形式保存，具体格式由CacheCodec决定*/
+    @Resource
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    @Resource
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    @Resource
+    private LockFactory lockFactory;
+
+    /*所有的序列化方式，读取时根据内容选择*/
+    @Resource
+    private List<CacheCodec> cacheCodecs;
+
+    /*写入时使用的序列化方式*/
+    @Value("${hmdp.cache.codec:binary}")
+    private String codecName;
+
+    private CacheCodec writeCodec;
+
+    /**
+     * 本地一级缓存，放在Redis前面，热点数据的读取不需要离开JVM
+     * 按容量做LRU淘汰，同时每个元素有存活时间，过期后重新从Redis加载
+     * value统一用RedisData包装：data为null表示缓存的空值，expireTime为null表示没有逻辑过期时间
+     * 注意：缓存中的对象会被多个请求共享，调用者不要修改返回的对象
+     */
+    private final LRUCache<String, RedisData> localCache =
+            CacheUtil.newLRUCache(CACHE_LOCAL_SIZE, TimeUnit.SECONDS.toMillis(CACHE_LOCAL_TTL));
+
+    /*按key前缀配置的过期时间策略，匹配最长的前缀*/
+    private final Map<String, CacheTtlPolicy> ttlPolicies = new LinkedHashMap<>();
+
+    private final CacheTtlPolicy defaultTtlPolicy =
+            new CacheTtlPolicy(CACHE_DEFAULT_TTL_JITTER, CACHE_DEFAULT_TTL_MAX_FACTOR);
+
+    /*每个key最近的读写次数，用于自适应过期时间，按容量淘汰，被淘汰的key重新计数*/
+    private final LRUCache<String, KeyStats> keyStats = CacheUtil.newLRUCache(CACHE_LOCAL_SIZE);
+
     /**
-     * 将任意类型的对象转为json后存储在String类型的key中，并可以设置TTl过期时间
+     * 订阅其他节点发来的失效消息，收到后删除本地缓存
+     */
+    @PostConstruct
+    private void init() {
+        ttlPolicies.put(CACHE_SHOP_KEY, new CacheTtlPolicy(CACHE_SHOP_TTL_JITTER, CACHE_SHOP_TTL_MAX_FACTOR));
+        ttlPolicies.put(CACHE_USER_KEY, new CacheTtlPolicy(CACHE_USER_TTL_JITTER, CACHE_USER_TTL_MAX_FACTOR));
+        /*其他节点的修改也要计入写次数*/
+        cacheInvalidationBus.subscribe(CACHE_INVALIDATE_CHANNEL, key -> {
+            recordWrite(key);
+            evictLocal(key);
+        });
+        writeCodec = cacheCodecs.stream()
+                .filter(codec -> codec.name().equals(codecName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("不支持的缓存序列化方式：" + codecName));
+    }
+
+    /**
+     * 将任意类型的对象序列化后存储在String类型的key中，并可以设置TTl过期时间
+     * 实际的过期时间由key前缀对应的策略在TTL的基础上调整（随机抖动、读多写少时延长）
      */
     public void set(String key, Object value, Long TTL, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), TTL, unit);
+        byteRedisTemplate.opsForValue().set(key, writeCodec.encode(value, null), ttlMillis(key, TTL, unit), TimeUnit.MILLISECONDS);
+        /*本地缓存中的旧值已经没用了，直接删掉，下次读取时再从Redis加载*/
+        localCache.remove(key);
     }
 
     /**
      * 存储后，设置逻辑过期时间
+     * 逻辑过期时间同样按策略调整，同一批写入的数据不会在同一时刻一起重建
      * @param key
      * @param value
      * @param TTL
      */
     public void setWithLogicalExpire(String key, Object value, Long TTL, TimeUnit unit) {
-        log.debug("进入了setWithLogicalExpire");
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        /*设置过期事件为当前时间加上指定的秒，将用户传的时间格式统一转成秒的形式*/
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(TTL)));
+        /*设置过期事件为当前时间加上调整后的毫秒数*/
+        LocalDateTime expireTime = LocalDateTime.now().plus(ttlMillis(key, TTL, unit), ChronoUnit.MILLIS);
         /*存入Redis*/
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        byteRedisTemplate.opsForValue().set(key, writeCodec.encode(value, expireTime));
+        localCache.remove(key);
+    }
+
+    /**
+     * 删除缓存，Redis和本地缓存中的都要删除，并通知其他节点删除它们的本地缓存
+     * 数据库中的数据修改后调用，例如修改商铺后删除 cache:shop:{id}
+     */
+    public void delete(String key) {
+        recordWrite(key);
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+        cacheInvalidationBus.broadcast(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 只删除本地缓存中的key
+     */
+    public void evictLocal(String key) {
+        localCache.remove(key);
     }
 
     /**
@@ -63,42 +150,187 @@ public class CacheClient {
                                           Long time, TimeUnit timeUnit) {
         /*确定获取的id*/
         String key = keyPrefix + id;
-        /*从Redis中获取到缓存*/
-        String json = stringRedisTemplate.opsForValue().get(key);
-        /*如果不为空则直接返回反序列化后的缓存*/
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
+        recordRead(key);
+
+        /*先查本地缓存，命中则直接返回（包括缓存的空值）*/
+        RedisData local = localCache.get(key, false);
+        if (local != null) {
+            return type.cast(local.getData());
         }
 
-        /*判断是否存在，如果存在说明其中内容是""，已经缓存了空值*/
-        if (json != null) {
+        /*从Redis中获取到缓存*/
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+        /*判断是否存在，如果存在但内容为空，说明已经缓存了空值*/
+        if (bytes != null && bytes.length == 0) {
+            putLocal(key, null, null);
             return null;
         }
+        /*如果不为空则直接返回反序列化后的缓存，反序列化失败（数据格式过时）时按未命中处理*/
+        if (bytes != null) {
+            R result = decode(bytes, type);
+            if (result != null) {
+                putLocal(key, result, null);
+                return result;
+            }
+        }
 
         /*到这没走则需要查询数据库了*/
         /*因为是工具类，我们不知道调哪个业务层，可能是商铺可能是用户，可能是商铺列表....*/
         /*所以需要调用者传逻辑，可以通过Function来传，函数式编程*/
-        R apply = function.apply(id);
+        /*同一个JVM内同时未命中的线程只有一个会去查数据库，其他线程共享它的结果*/
+        return singleFlight.execute(key, () -> {
+            /*再查一次Redis，可能在等待期间其他线程已经重建好了缓存*/
+            byte[] again = byteRedisTemplate.opsForValue().get(key);
+            if (again != null && again.length == 0) {
+                return null;
+            }
+            R cached = again == null ? null : decode(again, type);
+            if (cached != null) {
+                return cached;
+            }
 
-        /*判断数据库中查询到的是否为空*/
-        if (apply == null) {
-            /*为空则设置缓存空值后直接返回  并设置空值存在时间*/
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+            R apply = function.apply(id);
+
+            /*判断数据库中查询到的是否为空*/
+            if (apply == null) {
+                /*为空则设置缓存空值后直接返回  并设置空值存在时间*/
+                byteRedisTemplate.opsForValue().set(key, new byte[0], nullTtlMillis(key), TimeUnit.MILLISECONDS);
+                return null;
+            }
+
+            /*不为空，加入缓存，并设置时间，时间需要调用者传递， 因为并不是每个缓存都是固定时间*/
+            /*调用自己工具类写好的方法进行缓存添加*/
+            this.set(key, apply, time, timeUnit);
+
+            return apply;
+        });
+    }
+
+    /**
+     * 批量查询缓存，解决逐个查询的N+1问题
+     * 先查本地缓存，剩下的用一次MGET查Redis，Redis中也没有的再调用一次批量查询数据库的逻辑（一条IN查询），
+     * 最后通过一次pipeline写回Redis，不管查询多少个id，访问Redis和数据库的次数都是固定的
+     *
+     * @param ids 要查询的id，可以有重复
+     * @param bulkLoader 批量查询数据库的逻辑，参数是缓存中没有的id，返回id到对象的映射，不存在的id不放入map即可
+     * @return id到对象的映射，顺序和传入的ids一致，不存在的id不会出现在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                         Function<Collection<ID>, Map<ID, R>> bulkLoader,
+                                         Long time, TimeUnit timeUnit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        /*先按传入的顺序占位，保证返回结果的顺序，最后再去掉不存在的*/
+        for (ID id : ids) {
+            result.put(id, null);
         }
 
-        /*不为空，加入缓存，并设置时间，时间需要调用者传递， 因为并不是每个缓存都是固定时间*/
-        /*调用自己工具类写好的方法进行缓存添加*/
-        this.set(key, apply, time, timeUnit);
+        /*查本地缓存*/
+        List<ID> redisIds = new ArrayList<>();
+        Collection<ID> distinctIds = new LinkedHashSet<>(ids);
+        for (ID id : distinctIds) {
+            recordRead(keyPrefix + id);
+            RedisData local = localCache.get(keyPrefix + id, false);
+            if (local == null) {
+                redisIds.add(id);
+            } else if (local.getData() != null) {
+                result.put(id, type.cast(local.getData()));
+            }
+        }
 
-        return apply;
+        /*一次MGET查询Redis*/
+        List<ID> missIds = new ArrayList<>();
+        if (!redisIds.isEmpty()) {
+            List<String> keys = new ArrayList<>(redisIds.size());
+            for (ID id : redisIds) {
+                keys.add(keyPrefix + id);
+            }
+            List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < redisIds.size(); i++) {
+                ID id = redisIds.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes != null && bytes.length == 0) {
+                    /*缓存的空值*/
+                    putLocal(keys.get(i), null, null);
+                    continue;
+                }
+                R value = bytes == null ? null : decode(bytes, type);
+                if (value == null) {
+                    missIds.add(id);
+                    continue;
+                }
+                putLocal(keys.get(i), value, null);
+                result.put(id, value);
+            }
+        }
+
+        /*一次查询数据库，并通过一次pipeline写回Redis*/
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = bulkLoader.apply(missIds);
+            if (loaded == null) {
+                loaded = Collections.emptyMap();
+            }
+            Map<String, byte[]> values = new LinkedHashMap<>();
+            Map<String, Long> ttls = new LinkedHashMap<>();
+            for (ID id : missIds) {
+                String key = keyPrefix + id;
+                R value = loaded.get(id);
+                if (value == null) {
+                    /*数据库中也不存在，缓存空值防止穿透*/
+                    values.put(key, new byte[0]);
+                    ttls.put(key, nullTtlMillis(key));
+                } else {
+                    values.put(key, writeCodec.encode(value, null));
+                    ttls.put(key, time == null ? null : ttlMillis(key, time, timeUnit));
+                    result.put(id, value);
+                }
+            }
+            setPipelined(values, ttls);
+        }
+
+        result.values().removeIf(value -> value == null);
+        return result;
     }
 
-    /*线程池*/
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 通过一次pipeline批量写入Redis
+     * @param values key到序列化后的值
+     * @param ttls key到过期时间（毫秒），为null时不设置过期时间
+     */
+    private void setPipelined(Map<String, byte[]> values, Map<String, Long> ttls) {
+        if (values.isEmpty()) {
+            return;
+        }
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                Long ttl = ttls.get(entry.getKey());
+                Expiration expiration = ttl == null ? Expiration.persistent() : Expiration.milliseconds(ttl);
+                connection.stringCommands().set(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue(),
+                        expiration, RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+        for (String key : values.keySet()) {
+            localCache.remove(key);
+        }
+    }
+
+    /*缓存未命中时，同一个JVM内合并对同一个key的数据库查询*/
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /*热点key检测，通过CacheClient读取的数据本身已经有本地缓存，这里只做统计*/
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /*共享的缓存重建调度器，同一个key同时只会有一个重建任务*/
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
 
     /**
      * 通过逻辑过期解决缓存击穿
+     * 快要逻辑过期（剩余时间小于提前刷新窗口）时也会提交重建，热点数据在过期前就已经刷新好，不会读到旧数据
      *
      * @param prefix
      * @param id
@@ -109,62 +341,205 @@ public class CacheClient {
      */
     public <R, ID> R queryWithLogicTime(String prefix, ID id, Class<R> rClass, Function<ID, R> function, Long expireTime, TimeUnit timeUnit) {
         String key = prefix + id;
-        /*因为是逻辑过期，所以Redis中一定有缓存*/
-        String json = stringRedisTemplate.opsForValue().get(key);
+        recordRead(key);
+        LocalDateTime now = LocalDateTime.now();
+        /*提前刷新的时间点，逻辑过期时间在这之前就需要重建了*/
+        LocalDateTime refreshPoint = now.plusSeconds(Math.min(CACHE_REFRESH_AHEAD, timeUnit.toSeconds(expireTime) / 10));
+
+        /*先查本地缓存，本地缓存中保存的是已经反序列化好的对象和逻辑过期时间，逻辑上没过期就直接返回*/
+        RedisData local = localCache.get(key, false);
+        if (local != null && local.getExpireTime() != null && local.getExpireTime().isAfter(now)) {
+            if (!local.getExpireTime().isAfter(refreshPoint)) {
+                submitRebuild(key, id, function, expireTime, timeUnit);
+            }
+            return rClass.cast(local.getData());
+        }
 
-        /*判断是否是个空json*/
-        if (StrUtil.isBlank(json)) {
+        /*正常情况下启动时已经预热，Redis中一定有缓存*/
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+
+        /*判断是否是个空值*/
+        if (bytes != null && bytes.length == 0) {
             /*直接返回空*/
             return null;
         }
-        System.out.println(json);
 
-        /*将json转换为RedisData对象*/
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        /*将RedisData中的存储的对象（Object），强转为jsonObject后转为传过来的指定类型*/
-        R result = JSONUtil.toBean((JSONObject) redisData.getData(), rClass);
+        /*预热还没完成，或者数据修改后缓存被删除了，同步加载一次，同一个JVM内只有一个线程查数据库*/
+        if (bytes == null) {
+            return singleFlight.execute(key, () -> loadWithLogicalExpire(key, id, rClass, function, expireTime, timeUnit));
+        }
 
-        System.out.println(redisData);
+        /*先只读取逻辑过期时间，再反序列化出指定类型的对象*/
+        CacheCodec codec = codecOf(bytes);
+        LocalDateTime logicalExpireTime = codec.readExpireTime(bytes);
+        R result = codec.decode(bytes, rClass);
 
-        /*判断redis中的逻辑时间是否过期*/
-        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
-            /*过期时间在当前时间之后，说明没过期，则直接返回对象*/
-            return result;
+        /*判断redis中的逻辑时间是否过期，数据格式过时（result为null）也按过期处理*/
+        if (result != null && logicalExpireTime != null && logicalExpireTime.isAfter(now)) {
+            /*过期时间在当前时间之后，说明没过期，放入本地缓存后直接返回对象*/
+            putLocal(key, result, logicalExpireTime);
         }
 
-        /*到这说明以及过期，需要通过线程重建缓存，重设过期时间*/
-        /*防止多个线程同时重建缓存，所以需要获取锁*/
-        String lockKey = LOCK_SHOP_KEY + id;
-        if (tryLock(lockKey)) {
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                R apply = null;
-                try {
-                    apply = function.apply(id);
-                    /*将查询到的对象，包装成RedisData，设置逻辑时间，序列化成json后存入Redis*/
-                    this.setWithLogicalExpire(key, apply, expireTime, timeUnit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unLock(lockKey);
-                }
-            });
+        /*已经过期或者快要过期，需要重建缓存，重设过期时间，过期期间直接返回旧数据*/
+        if (result == null || logicalExpireTime == null || !logicalExpireTime.isAfter(refreshPoint)) {
+            submitRebuild(key, id, function, expireTime, timeUnit);
         }
 
         return result;
 
     }
 
-    public boolean tryLock(String lock) {
-        /*通过Redis不可修改已存在的方式，模拟锁*/
-        Boolean aBoolean = stringRedisTemplate.opsForValue().setIfAbsent(lock, "1", CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    /**
+     * 逻辑过期的缓存在Redis中不存在时，查询数据库并写入
+     */
+    private <R, ID> R loadWithLogicalExpire(String key, ID id, Class<R> rClass, Function<ID, R> function,
+                                            Long expireTime, TimeUnit timeUnit) {
+        /*再查一次Redis，可能在等待期间其他线程已经写入了*/
+        byte[] again = byteRedisTemplate.opsForValue().get(key);
+        if (again != null) {
+            return again.length == 0 ? null : decode(again, rClass);
+        }
+        R apply = function.apply(id);
+        if (apply == null) {
+            byteRedisTemplate.opsForValue().set(key, new byte[0], nullTtlMillis(key), TimeUnit.MILLISECONDS);
+            return null;
+        }
+        this.setWithLogicalExpire(key, apply, expireTime, timeUnit);
+        return apply;
+    }
 
-        /*将包装类转换为普通类型*/
-        return BooleanUtil.isTrue(aBoolean);
+    /**
+     * 通过一次pipeline批量写入逻辑过期的缓存，用于启动时的预热
+     * @param values key到要缓存的对象
+     */
+    public void setWithLogicalExpireBatch(Map<String, ?> values, Long TTL, TimeUnit unit) {
+        Map<String, byte[]> bytes = new LinkedHashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+        values.forEach((key, value) -> {
+            /*每个key的逻辑过期时间各自按策略计算，同一批写入的数据不会一起过期*/
+            LocalDateTime expireTime = now.plus(ttlMillis(key, TTL, unit), ChronoUnit.MILLIS);
+            bytes.put(key, writeCodec.encode(value, expireTime));
+        });
+        setPipelined(bytes, Collections.emptyMap());
     }
 
-    public void unLock(String lock) {
-        stringRedisTemplate.delete(lock);
+    /**
+     * 读取次数最多的key
+     * @param prefix key的前缀
+     * @param count 最多返回多少个
+     * @return key到读取次数，按读取次数从多到少排列
+     */
+    public Map<String, Long> topReadKeys(String prefix, int count) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        Iterator<CacheObj<String, KeyStats>> iterator = keyStats.cacheObjIterator();
+        while (iterator.hasNext()) {
+            CacheObj<String, KeyStats> cacheObj = iterator.next();
+            if (cacheObj.getKey().startsWith(prefix)) {
+                entries.add(new AbstractMap.SimpleEntry<>(cacheObj.getKey(), cacheObj.getValue().reads.get()));
+            }
+        }
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(count, entries.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
     }
 
+    /**
+     * 提交逻辑过期缓存的重建任务
+     * 同一个JVM内由调度器去重，多个JVM之间通过Redis锁互斥，锁的获取和释放都在重建线程中完成
+     */
+    private <R, ID> void submitRebuild(String key, ID id, Function<ID, R> function, Long expireTime, TimeUnit timeUnit) {
+        cacheRebuildScheduler.submit(key, () -> {
+            /*锁的存活时间不能太长，否则重建线程异常退出后，其他节点要很久才能重新重建*/
+            ILock lock = lockFactory.fastLock("shop:" + id);
+            if (!lock.tryLock(LOCK_SHOP_TTL)) {
+                /*其他JVM正在重建*/
+                return;
+            }
+            try {
+                R apply = function.apply(id);
+                /*将查询到的对象，设置逻辑时间，序列化后存入Redis*/
+                this.setWithLogicalExpire(key, apply, expireTime, timeUnit);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
 
-}
\ No newline at end of file
+    private <R> R decode(byte[] bytes, Class<R> type) {
+        return codecOf(bytes).decode(bytes, type);
+    }
+
+    /**
+     * 根据字节内容找到对应的序列化方式，切换序列化方式后Redis中的旧数据仍然可以读取
+     */
+    private CacheCodec codecOf(byte[] bytes) {
+        for (CacheCodec codec : cacheCodecs) {
+            if (codec.supports(bytes)) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("无法识别的缓存数据格式");
+    }
+
+    /**
+     * 放入本地缓存
+     * @param value 为null时表示缓存空值
+     * @param expireTime 逻辑过期时间，没有则为null
+     */
+    private void putLocal(String key, Object value, LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        localCache.put(key, redisData);
+    }
+
+    /**
+     * 根据key前缀对应的策略计算实际的过期时间（毫秒）
+     */
+    private long ttlMillis(String key, Long time, TimeUnit timeUnit) {
+        KeyStats stats = keyStats.get(key, false);
+        long reads = stats == null ? 0 : stats.reads.get();
+        long writes = stats == null ? 0 : stats.writes.get();
+        return policyOf(key).apply(timeUnit.toMillis(time), reads, writes);
+    }
+
+    /**
+     * 缓存空值的过期时间（毫秒），只做随机抖动
+     */
+    private long nullTtlMillis(String key) {
+        return policyOf(key).jitter(TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+    }
+
+    private CacheTtlPolicy policyOf(String key) {
+        CacheTtlPolicy policy = defaultTtlPolicy;
+        int matched = 0;
+        for (Map.Entry<String, CacheTtlPolicy> entry : ttlPolicies.entrySet()) {
+            String prefix = entry.getKey();
+            if (prefix.length() > matched && key.startsWith(prefix)) {
+                policy = entry.getValue();
+                matched = prefix.length();
+            }
+        }
+        return policy;
+    }
+
+    private void recordRead(String key) {
+        keyStats.get(key, KeyStats::new).reads.incrementAndGet();
+        hotKeyDetector.record(key);
+    }
+
+    private void recordWrite(String key) {
+        keyStats.get(key, KeyStats::new).writes.incrementAndGet();
+    }
+
+    /**
+     * 一个key的读写次数
+     */
+    private static class KeyStats {
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong writes = new AtomicLong();
+    }
+}
@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * 缓存值的序列化方式，CacheClient通过它把对象转成Redis中保存的字节
+ * 写入时使用配置的那一种（hmdp.cache.codec），读取时根据字节内容找到能解析它的那一种，方便切换时新旧格式共存
+ */
+public interface CacheCodec {
+
+    /**
+     * 名称，和配置项 hmdp.cache.codec 对应
+     */
+    String name();
+
+    /**
+     * 是否能解析这段字节
+     */
+    boolean supports(byte[] bytes);
+
+    /**
+     * 序列化
+     * @param value 缓存的对象，可以为null
+     * @param expireTime 逻辑过期时间，没有逻辑过期时传null
+     */
+    byte[] encode(Object value, LocalDateTime expireTime);
+
+    /**
+     * 只读取逻辑过期时间，没有则返回null
+     */
+    LocalDateTime readExpireTime(byte[] bytes);
+
+    /**
+     * 反序列化出缓存的对象
+     * @return 缓存的对象，格式和当前的类结构对不上时返回null，调用方按未命中处理
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+}
@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_FLUSH_INTERVAL;
+
+/**
+ * 基于Redis发布订阅的失效广播
+ * 某个节点修改数据后，通过它通知其他所有节点删除本地缓存中的key
+ * 广播不会立刻发送，而是先放入待发送集合，每隔一小段时间合并成一条消息发送，同一个key短时间内多次失效只会发送一次
+ * 同一条消息中的key没有顺序，需要表达状态变化（例如售罄、补货）时使用broadcastState，同一个对象只发送最新的状态
+ * 发布订阅不保证送达（例如订阅连接断开期间的消息会丢失），所以本地缓存本身必须有较短的存活时间兜底
+ */
+@Slf4j
+@Component
+public class CacheInvalidationBus {
+
+    /**
+     * 当前节点的标识，收到自己发出的消息时直接忽略，因为本节点在发送前已经删除过了
+     */
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    /**
+     * 一条消息中最多携带的key数量，防止突发大量失效时单条消息过大
+     */
+    private static final int MAX_KEYS_PER_MESSAGE = 500;
+
+    /*定时合并发送的线程*/
+    private static final ScheduledExecutorService FLUSH_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /*每个频道待发送的消息，key为合并的依据，value为发送的内容，同一个key只保留最后一次的内容*/
+    private final Map<String, Map<String, String>> pending = new ConcurrentHashMap<>();
+
+    /*每个频道上注册的处理逻辑*/
+    private final Map<String, List<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        FLUSH_EXECUTOR.scheduleWithFixedDelay(this::flush,
+                CACHE_INVALIDATE_FLUSH_INTERVAL, CACHE_INVALIDATE_FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        /*关闭前把还没发出去的消息发完*/
+        flush();
+        FLUSH_EXECUTOR.shutdown();
+    }
+
+    /**
+     * 向所有节点广播一个key
+     * @param channel 频道
+     * @param key 失效的key
+     */
+    public void broadcast(String channel, String key) {
+        broadcastState(channel, key, key);
+    }
+
+    /**
+     * 向所有节点广播一个对象的最新状态，同一个合并周期内多次修改只发送最后一次，不会因为乱序而用旧状态覆盖新状态
+     * @param channel 频道
+     * @param key 对象的标识
+     * @param message 发送的内容
+     */
+    public void broadcastState(String channel, String key, String message) {
+        pending.computeIfAbsent(channel, c -> new ConcurrentHashMap<>()).put(key, message);
+    }
+
+    /**
+     * 订阅某个频道，其他节点广播的每一个key都会交给handler处理
+     */
+    public void subscribe(String channel, Consumer<String> handler) {
+        handlers.computeIfAbsent(channel, c -> {
+            redisMessageListenerContainer.addMessageListener(
+                    (message, pattern) -> onMessage(c, message), new ChannelTopic(c));
+            return new CopyOnWriteArrayList<>();
+        }).add(handler);
+    }
+
+    /**
+     * 把待发送的key合并成消息发送出去
+     */
+    private void flush() {
+        for (Map.Entry<String, Map<String, String>> entry : pending.entrySet()) {
+            List<String> keys = new ArrayList<>();
+            for (Map.Entry<String, String> item : entry.getValue().entrySet()) {
+                /*发送期间又被修改的不删除，下次再发送最新的内容*/
+                entry.getValue().remove(item.getKey(), item.getValue());
+                keys.add(item.getValue());
+                if (keys.size() >= MAX_KEYS_PER_MESSAGE) {
+                    send(entry.getKey(), keys);
+                    keys = new ArrayList<>();
+                }
+            }
+            if (!keys.isEmpty()) {
+                send(entry.getKey(), keys);
+            }
+        }
+    }
+
+    private void send(String channel, List<String> keys) {
+        JSONObject message = new JSONObject();
+        message.set("node", NODE_ID);
+        message.set("keys", keys);
+        try {
+            stringRedisTemplate.convertAndSend(channel, message.toString());
+        } catch (Exception e) {
+            /*发送失败不重试，其他节点的本地缓存会在存活时间到了之后自然过期*/
+            log.error("广播失效消息失败，channel:{}，key数量:{}", channel, keys.size(), e);
+        }
+    }
+
+    private void onMessage(String channel, Message message) {
+        JSONObject body = JSONUtil.parseObj(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (NODE_ID.equals(body.getStr("node"))) {
+            return;
+        }
+        List<String> keys = body.getJSONArray("keys").toList(String.class);
+        for (Consumer<String> handler : handlers.get(channel)) {
+            for (String key : keys) {
+                handler.accept(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.SystemConstants.CACHE_REBUILD_QUEUE_SIZE;
+import static com.hmdp.utils.SystemConstants.CACHE_REBUILD_THREADS;
+
+/**
+ * 全局共享的缓存重建调度器，替代各个类中自己创建的无界队列线程池
+ * 1. 同一个key在等待或正在重建时，重复提交会被直接忽略
+ * 2. 队列有界，队列满了新的任务直接丢弃（调用方继续返回旧数据，下次读取时还会再次提交）
+ * 3. 重建失败只记录日志和次数，不会影响调用方
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    /*已经提交但还没执行完的key*/
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public CacheRebuildScheduler() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(CACHE_REBUILD_THREADS, CACHE_REBUILD_THREADS,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(CACHE_REBUILD_QUEUE_SIZE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "cache-rebuild-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 缓存的key，用来去重
+     * @param task 重建逻辑
+     * @return 是否真正提交成功，重复或队列已满时返回false
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            deduplicated.incrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                    succeeded.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.error("缓存重建失败，key:{}", key, e);
+                } finally {
+                    pendingKeys.remove(key);
+                }
+            });
+            submitted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            rejected.incrementAndGet();
+            log.warn("缓存重建队列已满，丢弃本次重建，key:{}", key);
+            return false;
+        }
+    }
+
+    /**
+     * 调度器的统计信息
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pendingKeys.size());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("active", executor.getActiveCount());
+        stats.put("submitted", submitted.get());
+        stats.put("deduplicated", deduplicated.get());
+        stats.put("rejected", rejected.get());
+        stats.put("succeeded", succeeded.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.hmdp.utils.RedisConstants.CACHE_ADAPTIVE_MIN_READS;
+
+/**
+ * 缓存过期时间的策略，按key的前缀配置
+ * 1. 随机抖动：在指定的过期时间上随机增加 0~jitterRatio 倍，同一批写入的缓存不会在同一时刻一起过期
+ * 2. 自适应：读多写少的key过期时间会被放大，最多放大到maxFactor倍，经常修改的key保持原来的过期时间
+ */
+@Getter
+public class CacheTtlPolicy {
+
+    private final double jitterRatio;
+
+    /*为1时不做自适应*/
+    private final double maxFactor;
+
+    public CacheTtlPolicy(double jitterRatio, double maxFactor) {
+        this.jitterRatio = jitterRatio;
+        this.maxFactor = Math.max(1, maxFactor);
+    }
+
+    /**
+     * 计算实际的过期时间
+     * @param base 调用者指定的过期时间
+     * @param reads 这个key最近被读取的次数
+     * @param writes 这个key最近被修改（删除缓存）的次数
+     * @return 实际的过期时间，单位和base一致
+     */
+    public long apply(long base, long reads, long writes) {
+        double factor = 1;
+        if (maxFactor > 1 && reads >= CACHE_ADAPTIVE_MIN_READS) {
+            /*读写比每增加10倍，过期时间多放大1倍：读写比100为2倍，1000为3倍*/
+            double ratio = (double) reads / (writes + 1);
+            factor = Math.min(maxFactor, Math.max(1, Math.log10(ratio)));
+        }
+        return jitter((long) (base * factor));
+    }
+
+    /**
+     * 只做随机抖动，用于缓存的空值等不需要自适应的情况
+     */
+    public long jitter(long base) {
+        if (jitterRatio <= 0 || base <= 0) {
+            return base;
+        }
+        return base + (long) (base * jitterRatio * ThreadLocalRandom.current().nextDouble());
+    }
+}
@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时的缓存预热
+ * 商铺使用逻辑过期的缓存，部署后Redis中没有数据时所有请求都要同步查询数据库
+ * 启动时按id顺序分页读取tb_shop，每页通过一次pipeline写入Redis，并打印进度
+ * 停机前把本节点读取最多的商铺id记录到Redis中，下次启动时先预热这些id
+ */
+@Slf4j
+@Component
+public class CacheWarmUp implements ApplicationRunner {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.cache.warm-up.enabled:true}")
+    private boolean enabled;
+
+    /*每页读取、写入的数量*/
+    @Value("${hmdp.cache.warm-up.batch-size:500}")
+    private int batchSize;
+
+    /*优先预热、停机时记录的热点id数量，为0时不记录*/
+    @Value("${hmdp.cache.warm-up.hot-count:1000}")
+    private int hotCount;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            Set<Long> hotIds = warmUpHotShops();
+            long count = warmUpAllShops(hotIds);
+            log.info("缓存预热完成，商铺:{}（其中热点:{}），耗时:{}ms", count, hotIds.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            /*预热失败不影响启动，未预热的数据在第一次访问时加载*/
+            log.error("缓存预热失败", e);
+        }
+    }
+
+    /**
+     * 停机前记录本节点读取最多的商铺id，多个节点的记录合并在同一个zset中
+     */
+    @PreDestroy
+    private void saveHotShops() {
+        if (!enabled || hotCount <= 0) {
+            return;
+        }
+        try {
+            Map<String, Long> top = cacheClient.topReadKeys(CACHE_SHOP_KEY, hotCount);
+            if (top.isEmpty()) {
+                return;
+            }
+            Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+            top.forEach((key, reads) ->
+                    tuples.add(new DefaultTypedTuple<>(key.substring(CACHE_SHOP_KEY.length()), reads.doubleValue())));
+            stringRedisTemplate.opsForZSet().add(CACHE_WARM_UP_HOT_SHOP_KEY, tuples);
+            stringRedisTemplate.expire(CACHE_WARM_UP_HOT_SHOP_KEY, CACHE_WARM_UP_HOT_TTL, TimeUnit.HOURS);
+            log.info("已记录热点商铺:{}个", top.size());
+        } catch (Exception e) {
+            log.warn("记录热点商铺失败", e);
+        }
+    }
+
+    /**
+     * 先预热上次停机前记录的热点商铺
+     * @return 已经预热的id
+     */
+    private Set<Long> warmUpHotShops() {
+        Set<Long> hotIds = new HashSet<>();
+        if (hotCount <= 0) {
+            return hotIds;
+        }
+        Set<String> members = stringRedisTemplate.opsForZSet()
+                .reverseRange(CACHE_WARM_UP_HOT_SHOP_KEY, 0, hotCount - 1);
+        if (CollUtil.isEmpty(members)) {
+            return hotIds;
+        }
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            ids.add(Long.valueOf(member));
+        }
+        for (List<Long> page : CollUtil.split(ids, batchSize)) {
+            List<Shop> shops = shopMapper.selectBatchIds(page);
+            write(shops);
+            for (Shop shop : shops) {
+                hotIds.add(shop.getId());
+            }
+        }
+        log.info("缓存预热：热点商铺{}个已完成", hotIds.size());
+        return hotIds;
+    }
+
+    /**
+     * 按id顺序分页预热所有商铺，跳过已经预热的热点商铺
+     * @return 预热的总数
+     */
+    private long warmUpAllShops(Set<Long> skipIds) {
+        Long total = shopMapper.selectCount(null);
+        long lastId = 0;
+        long count = skipIds.size();
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + batchSize));
+            if (shops.isEmpty()) {
+                return count;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            shops.removeIf(shop -> skipIds.contains(shop.getId()));
+            write(shops);
+            count += shops.size();
+            log.info("缓存预热进度：{}/{}", count, total);
+        }
+    }
+
+    private void write(List<Shop> shops) {
+        if (shops.isEmpty()) {
+            return;
+        }
+        Map<String, Shop> values = new LinkedHashMap<>();
+        for (Shop shop : shops) {
+            values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+        }
+        cacheClient.setWithLogicalExpireBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,237 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.*;
+
+/**
+ * 热点key检测
+ * 对读取进行采样，用count-min sketch估算每个key在当前时间窗口内的读取次数，并记录次数最多的前K个key
+ * 一个窗口内读取次数达到阈值的key即为热点key，通过get读取的热点key会自动复制一份到本地，短时间内不再访问Redis
+ * 窗口结束后重新计数，上一个窗口的热点key在下一个窗口内仍然算作热点
+ */
+@Component
+public class HotKeyDetector {
+
+    private volatile Window window = new Window(System.currentTimeMillis());
+
+    /*上一个窗口的热点key及其读取次数*/
+    private volatile Map<String, Long> previousHotKeys = Collections.emptyMap();
+
+    /**
+     * 热点key的本地副本，存活时间很短，修改后最多在这段时间内读到旧数据
+     */
+    private final TimedCache<String, Object> replica =
+            CacheUtil.newTimedCache(TimeUnit.SECONDS.toMillis(HOT_KEY_REPLICA_TTL));
+
+    private final AtomicLong replicaHits = new AtomicLong();
+    private final AtomicLong promoted = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        /*定时清理过期的副本*/
+        replica.schedulePrune(TimeUnit.SECONDS.toMillis(HOT_KEY_REPLICA_TTL));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        replica.cancelPruneSchedule();
+    }
+
+    /**
+     * 记录一次读取
+     */
+    public void record(String key) {
+        Window current = currentWindow();
+        if (ThreadLocalRandom.current().nextInt(HOT_KEY_SAMPLE_RATE) != 0) {
+            return;
+        }
+        /*采样得到的次数乘以采样间隔，就是估算的实际读取次数*/
+        current.offer(key, current.increment(key) * HOT_KEY_SAMPLE_RATE);
+    }
+
+    /**
+     * 是否是热点key
+     */
+    public boolean isHot(String key) {
+        Long count = currentWindow().top.get(key);
+        return (count != null && count >= HOT_KEY_THRESHOLD) || previousHotKeys.containsKey(key);
+    }
+
+    /**
+     * 读取一个key，热点key优先从本地副本中读取
+     * @param key Redis中的key
+     * @param loader 从Redis中读取的逻辑
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Supplier<T> loader) {
+        record(key);
+        if (!isHot(key)) {
+            return loader.get();
+        }
+        Object cached = replica.get(key, false);
+        if (cached != null) {
+            replicaHits.incrementAndGet();
+            return (T) cached;
+        }
+        T value = loader.get();
+        if (value != null) {
+            replica.put(key, value);
+            promoted.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * key对应的数据修改后删除本地副本
+     */
+    public void evict(String key) {
+        replica.remove(key);
+    }
+
+    /**
+     * 当前的热点key，按读取次数从多到少排列
+     */
+    public Map<String, Object> stats() {
+        Map<String, Long> hotKeys = new LinkedHashMap<>(previousHotKeys);
+        window.hotKeys().forEach((key, count) -> hotKeys.merge(key, count, Math::max));
+        List<Map<String, Object>> items = new ArrayList<>();
+        hotKeys.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(entry -> {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("key", entry.getKey());
+                    item.put("estimatedReads", entry.getValue());
+                    item.put("replicated", replica.containsKey(entry.getKey()));
+                    items.add(item);
+                });
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windowSeconds", HOT_KEY_WINDOW);
+        stats.put("threshold", HOT_KEY_THRESHOLD);
+        stats.put("sampleRate", HOT_KEY_SAMPLE_RATE);
+        stats.put("replicaSize", replica.size());
+        stats.put("replicaHits", replicaHits.get());
+        stats.put("promoted", promoted.get());
+        stats.put("hotKeys", items);
+        return stats;
+    }
+
+    /**
+     * 当前的时间窗口，过期了就换一个新的
+     */
+    private Window currentWindow() {
+        Window current = window;
+        long now = System.currentTimeMillis();
+        if (now - current.start < TimeUnit.SECONDS.toMillis(HOT_KEY_WINDOW)) {
+            return current;
+        }
+        synchronized (this) {
+            if (window == current) {
+                previousHotKeys = current.hotKeys();
+                window = new Window(now);
+            }
+            return window;
+        }
+    }
+
+    /**
+     * 一个时间窗口内的计数
+     */
+    private static class Window {
+        private final long start;
+
+        /*count-min sketch，共HOT_KEY_SKETCH_DEPTH行，每行HOT_KEY_SKETCH_WIDTH个计数器*/
+        private final AtomicLongArray counters = new AtomicLongArray(HOT_KEY_SKETCH_DEPTH * HOT_KEY_SKETCH_WIDTH);
+
+        /*估算次数最多的前K个key*/
+        private final Map<String, Long> top = new ConcurrentHashMap<>();
+
+        /*top满了之后其中最小的次数，次数不超过它的key不需要加锁比较*/
+        private volatile long minCount = 0;
+
+        Window(long start) {
+            this.start = start;
+        }
+
+        /**
+         * 每一行中key对应的计数器加一，返回所有行中最小的值（可能偏大，不会偏小）
+         */
+        long increment(String key) {
+            long hash = mix(key.hashCode());
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            long min = Long.MAX_VALUE;
+            for (int row = 0; row < HOT_KEY_SKETCH_DEPTH; row++) {
+                int column = (int) (((h1 + (long) row * h2) & Long.MAX_VALUE) % HOT_KEY_SKETCH_WIDTH);
+                min = Math.min(min, counters.incrementAndGet(row * HOT_KEY_SKETCH_WIDTH + column));
+            }
+            return min;
+        }
+
+        void offer(String key, long count) {
+            if (top.containsKey(key)) {
+                top.put(key, count);
+                return;
+            }
+            if (top.size() >= HOT_KEY_TOP_K && count <= minCount) {
+                return;
+            }
+            synchronized (this) {
+                if (top.size() >= HOT_KEY_TOP_K) {
+                    /*替换掉次数最少的那一个*/
+                    Map.Entry<String, Long> min = Collections.min(top.entrySet(), Map.Entry.comparingByValue());
+                    if (count <= min.getValue()) {
+                        minCount = min.getValue();
+                        return;
+                    }
+                    top.remove(min.getKey());
+                }
+                top.put(key, count);
+                if (top.size() >= HOT_KEY_TOP_K) {
+                    minCount = Collections.min(top.values());
+                }
+            }
+        }
+
+        /**
+         * 次数达到阈值的key
+         */
+        Map<String, Long> hotKeys() {
+            Map<String, Long> hotKeys = new LinkedHashMap<>();
+            top.forEach((key, count) -> {
+                if (count >= HOT_KEY_THRESHOLD) {
+                    hotKeys.put(key, count);
+                }
+            });
+            return hotKeys;
+        }
+
+        /*MurmurHash3的64位混淆函数*/
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
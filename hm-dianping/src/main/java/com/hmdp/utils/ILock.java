@@ -1,7 +1,25 @@
 package com.hmdp.utils;
 
+import java.util.concurrent.TimeUnit;
+
 public interface ILock {
+    /**
+     * 尝试获取锁，获取不到立即返回
+     * @param timeoutSec 锁的存活时间，到期自动释放，不会续期
+     */
     boolean tryLock(Long timeoutSec);
 
+    /**
+     * 尝试获取锁，最多等待waitTime
+     * 获取到之后由看门狗定时续期，直到调用unlock，持有锁的节点宕机后锁在续期间隔之后自动释放
+     */
+    boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException;
+
     void unlock();
+
+    /**
+     * 持有期间锁是否已经丢失：续期失败或者过期后被其他节点获取
+     * 长时间持有锁的任务在每一步之前检查，丢失后停止，不和新的持有者同时执行
+     */
+    boolean isLost();
 }
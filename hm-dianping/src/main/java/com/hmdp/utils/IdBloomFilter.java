@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 针对Long类型id的布隆过滤器，数据保存在JVM内存中
+ * 判断不存在则一定不存在，判断存在则可能存在（有一定的误判率）
+ * 位数组使用AtomicLongArray，多线程同时写入是安全的
+ */
+public class IdBloomFilter {
+
+    /*位数组，每个long保存64位*/
+    private final AtomicLongArray bits;
+
+    /*位的总数*/
+    private final long bitSize;
+
+    /*每个元素使用的哈希函数个数*/
+    private final int hashCount;
+
+    /*预计插入的元素数量和期望的误判率，只用于统计展示*/
+    private final long expectedInsertions;
+    private final double fpp;
+
+    /*已经被置为1的位数，用来估算当前实际的误判率*/
+    private final AtomicLong bitCount = new AtomicLong();
+
+    /*插入过的元素数量（重复插入也会计数，只是估算值）*/
+    private final AtomicLong insertions = new AtomicLong();
+
+    /**
+     * @param expectedInsertions 预计插入的元素数量
+     * @param fpp                期望的误判率，例如0.01
+     */
+    public IdBloomFilter(long expectedInsertions, double fpp) {
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        /*最优位数 m = -n * ln(p) / (ln2)^2 ，最优哈希个数 k = m / n * ln2*/
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bitSize = Math.max(64, (m + 63) / 64 * 64);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (bitSize / 64));
+    }
+
+    public void put(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = index(h1, h2, i);
+            int slot = (int) (index >>> 6);
+            long mask = 1L << index;
+            /*CAS设置对应的位，如果这个位是本次新设置的，则计数加一*/
+            while (true) {
+                long old = bits.get(slot);
+                if ((old & mask) != 0) {
+                    break;
+                }
+                if (bits.compareAndSet(slot, old, old | mask)) {
+                    bitCount.incrementAndGet();
+                    break;
+                }
+            }
+        }
+        insertions.incrementAndGet();
+    }
+
+    public boolean mightContain(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = index(h1, h2, i);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 根据当前置为1的位的比例估算的实际误判率
+     */
+    public double currentFpp() {
+        return Math.pow((double) bitCount.get() / bitSize, hashCount);
+    }
+
+    /**
+     * 位数组占用的内存字节数
+     */
+    public long memoryBytes() {
+        return bitSize / 8;
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double getFpp() {
+        return fpp;
+    }
+
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    /*双重哈希：第i个哈希值为 h1 + i * h2*/
+    private long index(int h1, int h2, int i) {
+        long combined = (h1 + (long) i * h2) & Long.MAX_VALUE;
+        return combined % bitSize;
+    }
+
+    /*MurmurHash3的64位混淆函数，让连续的自增id也能均匀分布*/
+    private static long mix(long id) {
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
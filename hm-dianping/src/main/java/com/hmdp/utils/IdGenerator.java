@@ -0,0 +1,14 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一id的生成器
+ * 默认是 RedisIdWorker，配置 hmdp.id.generator=snowflake 时使用本地生成的 SnowflakeIdGenerator
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成id
+     * @param keyPrefix 业务前缀，例如 order
+     */
+    Long nextId(String keyPrefix);
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * 原来的json格式：没有逻辑过期时直接是对象的json，有逻辑过期时是RedisData的json
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return bytes[0] == '{';
+    }
+
+    @Override
+    public byte[] encode(Object value, LocalDateTime expireTime) {
+        if (expireTime == null) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public LocalDateTime readExpireTime(byte[] bytes) {
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        if (!isRedisData(json)) {
+            return null;
+        }
+        return json.toBean(RedisData.class).getExpireTime();
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        /*只解析一次，是RedisData的话再把其中的data转成指定类型*/
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        if (isRedisData(json)) {
+            JSONObject data = json.getJSONObject("data");
+            return data == null ? null : data.toBean(type);
+        }
+        return json.toBean(type);
+    }
+
+    private boolean isRedisData(JSONObject json) {
+        return json.containsKey("expireTime") && json.size() <= 2;
+    }
+}
@@ -0,0 +1,40 @@
+package com.hmdp.utils;
+
+/**
+ * JVM内的令牌桶，令牌按固定速率补充，最多积累到容量
+ */
+class LocalTokenBucket {
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate 每秒补充的令牌数
+     * @param capacity 容量，即允许的突发请求数
+     */
+    LocalTokenBucket(double rate, double capacity) {
+        this(rate, capacity, System.nanoTime());
+    }
+
+    LocalTokenBucket(double rate, double capacity, long nowNanos) {
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = nowNanos;
+    }
+
+    boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    synchronized boolean tryAcquire(long nowNanos) {
+        tokens = Math.min(capacity, tokens + (nowNanos - lastRefill) * rate / 1_000_000_000L);
+        lastRefill = nowNanos;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
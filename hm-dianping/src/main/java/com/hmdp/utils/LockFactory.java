@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * 统一创建分布式锁，所有锁的key都是 lock:name，并按名称统计等待和持有时间
+ * 1. fastLock：SET NX实现，不可重入，获取和释放都只要一次Redis访问，适合短时间的互斥
+ * 2. reentrantLock：Redisson的可重入锁
+ * 3. fairLock：Redisson的公平锁，按请求顺序获取，开销最大
+ * 同一个名称只能使用一种锁，不同的锁在Redis中的数据结构不同
+ * 开启本地锁时，每把锁前面还有一把JVM内的锁（见TwoTierLock），同一个名称总是对应同一把本地锁：
+ * 1. 名称中带数字id的一类锁（例如 shop:1、shop:2 都属于 shop:*）共用一组分段的本地锁，按名称的hash分段
+ * 2. 不带id的锁（例如对账任务的锁）有自己单独的本地锁，不会和其他锁落在同一段
+ * 同一类锁中不同的id落在同一段时会互相等待，或者在不等待的获取中直接失败，分段数量远大于并发线程数时很少发生
+ * 不同类的锁之间不会互相影响
+ */
+@Component
+public class LockFactory {
+
+    private static final String KEY_PREFIX = "lock:";
+
+    /*统计时把名称中的数字id替换为*，例如 shop:1 和 shop:2 都统计到 shop:* 中*/
+    private static final Pattern ID_SEGMENT = Pattern.compile("(?<=^|:)\\d+(?=:|$)");
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /*是否在分布式锁前面加一层本地锁*/
+    @Value("${hmdp.lock.local-tier:true}")
+    private boolean localTier;
+
+    /*本地锁的分段数量，向上取整为2的幂*/
+    @Value("${hmdp.lock.local-stripes:1024}")
+    private int localStripes;
+
+    private final Map<String, LockMetrics> metrics = new ConcurrentHashMap<>();
+
+    /*每类锁的本地锁，key为统计用的名称，公平锁加上fair:前缀，使用公平的本地锁，保持本节点内的请求顺序*/
+    private final Map<String, ReentrantLock[]> localLocks = new ConcurrentHashMap<>();
+
+    private int stripeSize;
+
+    @PostConstruct
+    private void init() {
+        stripeSize = localStripes <= 1 ? 1 : Integer.highestOneBit(localStripes - 1) << 1;
+    }
+
+    public ILock fastLock(String name) {
+        return metered(name, twoTier(false, name, new SimpleRedisLock(name, stringRedisTemplate)));
+    }
+
+    public ILock reentrantLock(String name) {
+        return metered(name, twoTier(false, name, new RedissonLock(redissonClient.getLock(KEY_PREFIX + name))));
+    }
+
+    public ILock fairLock(String name) {
+        return metered(name, twoTier(true, name, new RedissonLock(redissonClient.getFairLock(KEY_PREFIX + name))));
+    }
+
+    /**
+     * 每类锁的统计，总等待时间长的在前面
+     */
+    public Map<String, Object> stats() {
+        List<Map.Entry<String, LockMetrics>> entries = new ArrayList<>(metrics.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().getTotalWaitNanos(), a.getValue().getTotalWaitNanos()));
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, LockMetrics> entry : entries) {
+            stats.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return stats;
+    }
+
+    private ILock twoTier(boolean fair, String name, ILock distributed) {
+        if (!localTier) {
+            return distributed;
+        }
+        String metricName = metricName(name);
+        ReentrantLock[] locks = localLocks.computeIfAbsent(fair ? "fair:" + metricName : metricName, key -> {
+            /*不带id的锁只有一个名称，不需要分段*/
+            ReentrantLock[] created = new ReentrantLock[metricName.equals(name) ? 1 : stripeSize];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new ReentrantLock(fair);
+            }
+            return created;
+        });
+        int hash = name.hashCode();
+        /*高位参与计算，和HashMap一样*/
+        int index = (hash ^ (hash >>> 16)) & (locks.length - 1);
+        return new TwoTierLock(locks[index], distributed);
+    }
+
+    private ILock metered(String name, ILock lock) {
+        return new MeteredLock(lock, metrics.computeIfAbsent(metricName(name), key -> new LockMetrics()));
+    }
+
+    private static String metricName(String name) {
+        return ID_SEGMENT.matcher(name).replaceAll("*");
+    }
+}
@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一类锁的统计：获取次数、失败次数、等待时间、持有时间
+ * 等待超过1毫秒或者获取失败都算一次竞争
+ */
+public class LockMetrics {
+
+    private static final long CONTENDED_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder holdNanos = new LongAdder();
+    private final LongAccumulator maxHoldNanos = new LongAccumulator(Math::max, 0);
+    /*当前节点正在持有的数量*/
+    private final AtomicLong holding = new AtomicLong();
+
+    void recordAcquire(boolean success, long waited) {
+        attempts.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulate(waited);
+        if (!success) {
+            failures.increment();
+        }
+        if (!success || waited > CONTENDED_NANOS) {
+            contended.increment();
+        }
+        if (success) {
+            holding.incrementAndGet();
+        }
+    }
+
+    void recordRelease(long held) {
+        releases.increment();
+        holdNanos.add(held);
+        maxHoldNanos.accumulate(held);
+        holding.decrementAndGet();
+    }
+
+    public long getTotalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    public Map<String, Object> snapshot() {
+        long attemptCount = attempts.sum();
+        long releaseCount = releases.sum();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("attempts", attemptCount);
+        snapshot.put("failures", failures.sum());
+        snapshot.put("contended", contended.sum());
+        snapshot.put("holding", holding.get());
+        snapshot.put("avgWaitMillis", attemptCount == 0 ? 0 : toMillis(waitNanos.sum() / (double) attemptCount));
+        snapshot.put("maxWaitMillis", toMillis(maxWaitNanos.get()));
+        snapshot.put("avgHoldMillis", releaseCount == 0 ? 0 : toMillis(holdNanos.sum() / (double) releaseCount));
+        snapshot.put("maxHoldMillis", toMillis(maxHoldNanos.get()));
+        return snapshot;
+    }
+
+    private static double toMillis(double nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录等待时间和持有时间的锁包装
+ * 同一个线程重入时只统计最外层的持有时间，和SimpleRedisLock一样，一个对象只在一个线程中使用
+ */
+public class MeteredLock implements ILock {
+
+    private final ILock delegate;
+    private final LockMetrics metrics;
+
+    /*重入的层数和最外层获取到锁的时间*/
+    private int depth;
+    private long acquiredAt;
+
+    public MeteredLock(ILock delegate, LockMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean tryLock(Long timeoutSec) {
+        long start = System.nanoTime();
+        boolean success = delegate.tryLock(timeoutSec);
+        acquired(success, start);
+        return success;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = delegate.tryLock(waitTime, unit);
+        } finally {
+            acquired(success, start);
+        }
+        return success;
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            delegate.unlock();
+        } finally {
+            if (depth > 0 && --depth == 0) {
+                metrics.recordRelease(System.nanoTime() - acquiredAt);
+            }
+        }
+    }
+
+    @Override
+    public boolean isLost() {
+        return delegate.isLost();
+    }
+
+    private void acquired(boolean success, long start) {
+        long now = System.nanoTime();
+        if (success && depth++ > 0) {
+            /*重入不算一次新的获取*/
+            return;
+        }
+        metrics.recordAcquire(success, now - start);
+        if (success) {
+            acquiredAt = now;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀订单的处理状态
+ * 秒杀接口返回订单号时订单还没有写入数据库，状态为 PENDING，写入后变为 PERSISTED，因为库存不足、重复下单等原因被丢弃时变为 FAILED
+ * 状态保存在Redis的hash中，客户端通过订单号查询，不需要查询数据库
+ * 也可以长轮询等待：请求挂起在收到请求的节点上，订单处理完成时本节点直接唤醒，同时广播订单号，其他节点收到后唤醒自己挂起的请求
+ */
+@Component
+public class OrderStatusTracker {
+
+    public static final String PENDING = "PENDING";
+    public static final String PERSISTED = "PERSISTED";
+    public static final String FAILED = "FAILED";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    /*长轮询最多挂起多少毫秒，超时后返回当前的状态*/
+    @Value("${hmdp.seckill.order-status.poll-timeout:10000}")
+    private long pollTimeout;
+
+    /*本节点上挂起的长轮询请求，订单id到等待它的请求*/
+    private final Map<Long, Set<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        cacheInvalidationBus.subscribe(SECKILL_ORDER_STATUS_CHANNEL, message -> {
+            Long orderId = Long.valueOf(message);
+            if (waiters.containsKey(orderId)) {
+                notifyWaiters(orderId, read(orderId));
+            }
+        });
+    }
+
+    /**
+     * 秒杀成功，订单等待写入数据库
+     */
+    public void pending(Long orderId, Long userId) {
+        String key = SECKILL_ORDER_STATUS_KEY + orderId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            /*stream模式下订单可能在这之前就已经处理完了，不能覆盖已经完成的状态*/
+            stringConnection.hSetNX(key, "status", PENDING);
+            stringConnection.hSet(key, "userId", userId.toString());
+            stringConnection.expire(key, TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL));
+            return null;
+        });
+    }
+
+    /**
+     * 一批订单处理完成，在一个pipeline中更新所有订单的状态，并唤醒等待的请求
+     * @param results 订单id到失败原因，写入成功的订单原因为null
+     */
+    public void complete(Map<Long, String> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            results.forEach((orderId, reason) -> {
+                String key = SECKILL_ORDER_STATUS_KEY + orderId;
+                Map<String, String> status = new HashMap<>();
+                status.put("status", reason == null ? PERSISTED : FAILED);
+                if (reason != null) {
+                    status.put("reason", reason);
+                }
+                stringConnection.hMSet(key, status);
+                stringConnection.expire(key, TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL));
+            });
+            return null;
+        });
+        results.forEach((orderId, reason) -> {
+            if (waiters.containsKey(orderId)) {
+                notifyWaiters(orderId, toStatus(reason == null ? PERSISTED : FAILED, reason));
+            }
+            cacheInvalidationBus.broadcast(SECKILL_ORDER_STATUS_CHANNEL, orderId.toString());
+        });
+    }
+
+    /**
+     * 查询订单的状态
+     * @param userId 当前用户，只能查询自己的订单
+     * @return 不存在时返回null
+     */
+    public Map<String, Object> query(Long orderId, Long userId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(SECKILL_ORDER_STATUS_KEY + orderId);
+        if (entries.isEmpty() || !userId.toString().equals(entries.get("userId"))) {
+            return null;
+        }
+        return toStatus((String) entries.get("status"), (String) entries.get("reason"));
+    }
+
+    /**
+     * 长轮询等待订单处理完成，已经处理完成时立即返回
+     * @return Redis中没有这个订单的状态时返回null
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId) {
+        Map<String, Object> current = query(orderId, userId);
+        if (current == null) {
+            return null;
+        }
+        DeferredResult<Result> result = new DeferredResult<>(pollTimeout);
+        if (!PENDING.equals(current.get("status"))) {
+            result.setResult(Result.ok(current));
+            return result;
+        }
+
+        waiters.computeIfAbsent(orderId, id -> ConcurrentHashMap.newKeySet()).add(result);
+        result.onTimeout(() -> result.setResult(Result.ok(current)));
+        result.onCompletion(() -> waiters.computeIfPresent(orderId, (id, set) -> {
+            set.remove(result);
+            return set.isEmpty() ? null : set;
+        }));
+        /*注册之前订单可能已经处理完了，再检查一次，避免错过通知一直挂起到超时*/
+        Map<String, Object> latest = read(orderId);
+        if (latest != null && !PENDING.equals(latest.get("status"))) {
+            result.setResult(Result.ok(latest));
+        }
+        return result;
+    }
+
+    private Map<String, Object> read(Long orderId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(SECKILL_ORDER_STATUS_KEY + orderId);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        return toStatus((String) entries.get("status"), (String) entries.get("reason"));
+    }
+
+    private void notifyWaiters(Long orderId, Map<String, Object> status) {
+        if (status == null || PENDING.equals(status.get("status"))) {
+            return;
+        }
+        Set<DeferredResult<Result>> set = waiters.remove(orderId);
+        if (set == null) {
+            return;
+        }
+        for (DeferredResult<Result> result : set) {
+            result.setResult(Result.ok(status));
+        }
+    }
+
+    private static Map<String, Object> toStatus(String status, String reason) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("status", status);
+        if (reason != null) {
+            map.put("reason", reason);
+        }
+        return map;
+    }
+}
@@ -5,6 +5,9 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    /*登录用户本地缓存的容量，以及退出登录时通知其他节点删除本地缓存的频道*/
+    public static final int LOGIN_SESSION_LOCAL_SIZE = 10000;
+    public static final String LOGIN_SESSION_CHANNEL = "login:session";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
@@ -12,10 +15,100 @@ public class RedisConstants {
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType:list";
 
+    /*
+     * 用户缓存只保存昵称和头像，修改用户信息时要通过CacheClient.delete删除，新建用户时已经删除
+     * 没有删除的修改最多在 30分钟 * 最大放大倍数2 * (1 + 抖动0.2) = 72分钟 后可见，本地缓存再加 CACHE_LOCAL_TTL 秒
+     */
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    /*
+     * 各个前缀的过期时间策略：随机抖动的比例，以及读多写少时过期时间最多放大的倍数（1表示不放大）
+     * 没有配置的前缀使用默认策略，只做随机抖动
+     */
+    public static final double CACHE_SHOP_TTL_JITTER = 0.2;
+    public static final double CACHE_SHOP_TTL_MAX_FACTOR = 4;
+    public static final double CACHE_USER_TTL_JITTER = 0.2;
+    public static final double CACHE_USER_TTL_MAX_FACTOR = 2;
+    public static final double CACHE_DEFAULT_TTL_JITTER = 0.1;
+    public static final double CACHE_DEFAULT_TTL_MAX_FACTOR = 1;
+    /*至少被读取这么多次之后才开始放大过期时间*/
+    public static final int CACHE_ADAPTIVE_MIN_READS = 100;
+
+    /*本地一级缓存（JVM内）的容量和存活时间（秒），存活时间要远小于Redis中的TTL，减少多节点间的不一致窗口*/
+    public static final int CACHE_LOCAL_SIZE = 10000;
+    public static final Long CACHE_LOCAL_TTL = 60L;
+
+    /*本地缓存失效广播的频道，以及合并发送的时间间隔（毫秒）*/
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final Long CACHE_INVALIDATE_FLUSH_INTERVAL = 50L;
+
+    /*逻辑过期前多少秒开始提前重建缓存（最多不超过逻辑过期时长的十分之一）*/
+    public static final Long CACHE_REFRESH_AHEAD = 60L;
+
+    /*布隆过滤器新增id的广播频道*/
+    public static final String BLOOM_FILTER_CHANNEL = "bloom:add";
+
+    /*热点key检测的时间窗口（秒），一个窗口内读取次数达到阈值即为热点key，热点key在本地副本中的存活时间（秒）*/
+    public static final Long HOT_KEY_WINDOW = 10L;
+    public static final Long HOT_KEY_THRESHOLD = 1000L;
+    public static final Long HOT_KEY_REPLICA_TTL = 3L;
+
+    /*停机前记录的读取最多的商铺id（zset，分数为读取次数），下次启动时优先预热，以及它的保存时间（小时）*/
+    public static final String CACHE_WARM_UP_HOT_SHOP_KEY = "cache:warmup:hot:shop";
+    public static final Long CACHE_WARM_UP_HOT_TTL = 24L;
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    /*看门狗模式下锁的存活时间（毫秒），每隔三分之一的时间续期一次*/
+    public static final Long LOCK_WATCHDOG_TTL = 30000L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    /*分片模式下每个秒杀券的分片数量，不存在说明是不分片的单个库存key*/
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+
+    /*秒杀券售罄的广播频道，以及售罄标记在本地保存多久（秒）后重新去Redis确认*/
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final Long SECKILL_SOLD_OUT_RECHECK = 5L;
+
+    /*秒杀券全局令牌桶的key，以及用户在所有节点上的限流标记，都用 {秒杀券id} 作为hash tag，在同一个脚本中访问*/
+    public static final String SECKILL_BUCKET_KEY = "seckill:bucket:";
+    public static final String SECKILL_USER_LIMIT_KEY = "seckill:user-limit:";
+
+    /*秒杀券的开始和结束时间，以及修改后通知其他节点的广播频道*/
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    public static final String SECKILL_WINDOW_CHANNEL = "seckill:window";
+    /*本地缓存的秒杀时间的容量和存活时间（秒），以及不存在的秒杀券在本地记住多久（秒）*/
+    public static final int SECKILL_WINDOW_LOCAL_SIZE = 10000;
+    public static final Long SECKILL_WINDOW_LOCAL_TTL = 600L;
+    public static final Long SECKILL_WINDOW_MISSING_TTL = 5L;
+
+    /*
+     * 订单stream和消费者组，其他节点的消费者超过多少毫秒没有确认的订单会被接管，以及检查的间隔（毫秒）
+     * 秒杀脚本会同时写库存分片和这个stream，Redis集群下它们不在同一个slot，需要使用单机或主从的Redis（启动时检查，见SeckillStockShards）
+     */
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final Long SECKILL_ORDER_RECLAIM_IDLE = 60000L;
+    public static final Long SECKILL_ORDER_RECLAIM_INTERVAL = 30000L;
+    /*消费者的心跳key和存活时间（毫秒），只接管心跳已经过期的消费者的订单*/
+    public static final String SECKILL_ORDER_CONSUMER_KEY = "seckill:order-consumer:";
+    public static final Long SECKILL_ORDER_CONSUMER_TTL = 30000L;
+
+    /*秒杀订单的处理状态，保存多久（分钟），以及状态变化的广播频道*/
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:order-status:";
+    public static final Long SECKILL_ORDER_STATUS_TTL = 30L;
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "seckill:order-status";
+
+    /*库存对账任务的锁，同一时间只有一个节点在对账*/
+    public static final String SECKILL_RECONCILE_LOCK = "seckill:reconcile";
+
+    /*雪花算法的worker id租约、每个worker id最后用到的时间，以及租约时间（秒）*/
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final String ID_WORKER_TIME_KEY = "id:worker:time:";
+    public static final Long ID_WORKER_LEASE_TTL = 30L;
+
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -1,15 +1,32 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import javax.annotation.Resource;
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.SystemConstants.ID_SEGMENT_PREFETCH_RATIO;
+
+/**
+ * 全局唯一id：时间戳（秒）左移32位，低32位是当天的序列号
+ * 序列号可以按号段分配：每次用一个INCRBY向Redis申请一段序列号，之后在本地递增发放，不需要每个id都访问一次Redis
+ * 当前号段用掉一定比例后，在后台线程中提前申请下一段，号段用完时通常已经准备好了
+ * 节点重启或者跨天时，没有用完的序列号直接丢弃，id不连续，但是不会重复
+ */
+@Slf4j
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdGenerator {
 
     /**
      * 2022 1-1 0:0 的秒数
@@ -21,38 +38,189 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32 ;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    /*后台申请下一个号段的线程*/
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /*每个号段的序列号数量，小于等于1时每个id都执行一次INCR*/
+    @Value("${hmdp.id.segment-size:1000}")
+    private int segmentSize;
+
+    /*每种业务前缀的号段*/
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    /*当天的日期，只在跨天时重新格式化*/
+    private volatile CachedDate cachedDate = new CachedDate(-1, null);
+
     /*因为本类已被Spring接管，所以可以通过构造函数的形式从容器中自动注入*/
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
     /**
      * 生成id
      * @return
      */
+    @Override
     public Long nextId(String keyPrefix){
+        return nextId(keyPrefix, LocalDateTime.now().toEpochSecond(ZoneOffset.UTC));
+    }
+
+    /**
+     * 按指定的时间生成id
+     * @param epochSecond 当前时间的秒数
+     */
+    long nextId(String keyPrefix, long epochSecond) {
         /*因为id是由时间戳和序列号拼接组成*/
         /*时间戳由现在时间秒，减去某个时间(这里使用 2022-1-1-0-0)秒得出*/
-        LocalDateTime now = LocalDateTime.now();
-        long timeStamp = now.toEpochSecond(ZoneOffset.UTC)-BEGIN_TIMESTAMP;
+        long timeStamp = epochSecond - BEGIN_TIMESTAMP;
 
         /*获取序列号，序列号的key 由业务前缀加上当前时间自增得出*/
-        String data = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        CachedDate date = currentDate(epochSecond);
 
         /*这样自增量都是按照每天来进行统计*/
         /*例如2.07是 0 1 2 3  这样自增*/
         /*到了2.08就不是从3继续自增了 而是又从 0 1 2 3开始自增*/
         /*这样做是因为Redis最多存储2的32位数，如果不按天数分割，日积月累几十年很可能到达2的32位*/
-        Long count = stringRedisTemplate.opsForValue().increment("inc:" + keyPrefix + ":" + data);
+        long count = segmentSize <= 1
+                ? stringRedisTemplate.opsForValue().increment(sequenceKey(keyPrefix, date.text))
+                : nextSequence(keyPrefix, date);
 
 
         /*将时间戳左移32位，再通过或的方式将序列号放在左移后的32位中（0和0还是0，1和0就位1）*/
         return timeStamp << COUNT_BITS | count;
     }
 
+    /**
+     * 从当天的号段中取一个序列号
+     */
+    private long nextSequence(String keyPrefix, CachedDate date) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, prefix -> new SegmentBuffer());
+        Segment segment = buffer.current;
+        while (true) {
+            if (segment == null || segment.day != date.day) {
+                segment = switchSegment(buffer, keyPrefix, date, segment);
+                continue;
+            }
+            long value = segment.cursor.getAndIncrement();
+            if (value <= segment.end) {
+                /*用到一定比例时提前申请下一段，每个号段只会触发一次*/
+                if (value == segment.prefetchAt) {
+                    prefetch(buffer, keyPrefix, date);
+                }
+                return value;
+            }
+            /*当前号段用完了*/
+            segment = switchSegment(buffer, keyPrefix, date, segment);
+        }
+    }
 
+    /**
+     * 换成下一个号段，优先使用后台已经申请好的
+     * @param exhausted 调用方看到的已经不能用的号段，如果已经被其他线程换掉了，直接返回新的
+     */
+    private Segment switchSegment(SegmentBuffer buffer, String keyPrefix, CachedDate date, Segment exhausted) {
+        synchronized (buffer) {
+            Segment current = buffer.current;
+            if (current != exhausted && current != null && current.day == date.day) {
+                return current;
+            }
+            Segment next = null;
+            CompletableFuture<Segment> prefetched = buffer.next;
+            buffer.next = null;
+            if (prefetched != null) {
+                try {
+                    next = prefetched.join();
+                } catch (Exception e) {
+                    log.warn("后台申请id号段失败，改为同步申请，prefix:{}", keyPrefix, e);
+                }
+            }
+            /*跨天后前一天申请的号段不能再使用*/
+            if (next == null || next.day != date.day) {
+                next = lease(keyPrefix, date);
+            }
+            buffer.current = next;
+            return next;
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String keyPrefix, CachedDate date) {
+        synchronized (buffer) {
+            if (buffer.next == null) {
+                buffer.next = CompletableFuture.supplyAsync(() -> lease(keyPrefix, date), prefetchExecutor);
+            }
+        }
+    }
 
+    /**
+     * 用一次INCRBY申请一段序列号
+     */
+    private Segment lease(String keyPrefix, CachedDate date) {
+        Long end = stringRedisTemplate.opsForValue().increment(sequenceKey(keyPrefix, date.text), segmentSize);
+        if (end == null) {
+            throw new IllegalStateException("申请id号段失败");
+        }
+        return new Segment(date.day, end - segmentSize + 1, end);
+    }
+
+    private static String sequenceKey(String keyPrefix, String date) {
+        return "inc:" + keyPrefix + ":" + date;
+    }
+
+    private CachedDate currentDate(long epochSecond) {
+        long day = Math.floorDiv(epochSecond, 86400L);
+        CachedDate date = cachedDate;
+        if (date.day != day) {
+            date = new CachedDate(day, LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC).format(DATE_FORMATTER));
+            cachedDate = date;
+        }
+        return date;
+    }
+
+    private static class CachedDate {
+        private final long day;
+        private final String text;
+
+        CachedDate(long day, String text) {
+            this.day = day;
+            this.text = text;
+        }
+    }
+
+    /**
+     * 一段序列号 [start, end]，cursor是下一个要发放的序列号
+     */
+    private static class Segment {
+        private final long day;
+        private final long end;
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+
+        Segment(long day, long start, long end) {
+            this.day = day;
+            this.end = end;
+            this.prefetchAt = start + (long) ((end - start + 1) * ID_SEGMENT_PREFETCH_RATIO);
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    /**
+     * 一种业务前缀正在使用的号段和后台申请中的下一个号段
+     */
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private CompletableFuture<Segment> next;
+    }
 }
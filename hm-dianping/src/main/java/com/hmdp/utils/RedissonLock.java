@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import org.redisson.api.RLock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redisson锁的适配，可重入，等待获取时使用Redisson自带的看门狗续期
+ * Redisson的锁和线程绑定，一个对象可以被多个线程共用
+ */
+public class RedissonLock implements ILock {
+
+    private final RLock rLock;
+
+    public RedissonLock(RLock rLock) {
+        this.rLock = rLock;
+    }
+
+    @Override
+    public boolean tryLock(Long timeoutSec) {
+        try {
+            return rLock.tryLock(0, timeoutSec, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
+        /*不指定leaseTime时由看门狗续期*/
+        return rLock.tryLock(waitTime, unit);
+    }
+
+    @Override
+    public void unlock() {
+        /*锁已经过期或者不是当前线程持有时，Redisson会抛出异常*/
+        if (rLock.isHeldByCurrentThread()) {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * Redisson续期失败时锁会过期，查询一次Redis确认是否还是当前线程持有
+     */
+    @Override
+    public boolean isLost() {
+        return !rLock.isHeldByCurrentThread();
+    }
+}
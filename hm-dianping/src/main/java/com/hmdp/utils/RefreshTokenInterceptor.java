@@ -1,32 +1,24 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
-
 /*刷新redis中用户信息存在时间*/
 public class RefreshTokenInterceptor implements HandlerInterceptor {
 
-    private StringRedisTemplate stringRedisTemplate;
+    private SessionCache sessionCache;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(SessionCache sessionCache) {
+        this.sessionCache = sessionCache;
     }
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
-        /*获取到请求中带的token并加上前缀就是redis中用户参数的key*/
+        /*获取到请求中带的token*/
         String token = request.getHeader("authorization");
         /*如果拿到的token为空说明未登录，放行给第二个拦截器判断是否是需要登录的请求*/
         /*为啥不在这就拦截，在这拦截那么不需要登录的请求也被要求登录了（因为这个拦截器是拦截所有请求的，难道我不登录访问个普通网页，也给我拦截吗）*/
@@ -34,21 +26,14 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
             return true;
         }
 
-        String key = LOGIN_USER_KEY+token;
-
-        /*通过token拿到redis中的用户数据*/
-        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
-
-        /*这不是判断entries是不是空,而是判断是它否是一个空map，里面是否有东西*/
-        if (entries.isEmpty()) {
+        /*先查本地缓存，没有再查redis，并按需刷新存在时间*/
+        UserDTO userDTO = sessionCache.get(token);
+        if (userDTO == null) {
             return true;
         }
 
-        /*到这还没放行说明map非空,则可以保存到ThreadLoad并刷新存在时间了*/
-        /*将Map转换为用户Dto类*/
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(entries, new UserDTO(), false);
+        /*保存到ThreadLocal*/
         UserHolder.saveUser(userDTO);
-        stringRedisTemplate.expire(key,LOGIN_USER_TTL,TimeUnit.MINUTES);
 
         /*放行*/
         return true;
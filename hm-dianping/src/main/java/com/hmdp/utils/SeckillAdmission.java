@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_BUCKET_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_USER_LIMIT_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_WINDOW_LOCAL_SIZE;
+
+/**
+ * 秒杀请求的准入控制，请求在进入Lua脚本和订单队列之前依次经过：
+ * 1. 本地预过滤：不在秒杀时间内、已售罄的秒杀券直接拒绝
+ * 2. 用户限流：同一个用户对同一张秒杀券在一段时间内只放行一次请求（本地判断，连续点击不会访问Redis）
+ * 3. 本节点令牌桶：每个节点对每张秒杀券有自己的令牌桶，超过本节点能承受的速率直接拒绝
+ * 4. 全局令牌桶：所有节点共享的Redis令牌桶，控制进入秒杀脚本的总速率，脚本中先检查用户在其他节点上是否刚刚被放行过
+ * 用户限流在令牌桶之前，一个用户连续点击只消耗一个令牌，不会占用其他用户的令牌
+ * 前三步都在JVM内完成，被拒绝的请求不访问Redis；Redis出错时放行，由后面的秒杀脚本保证不超卖
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+
+    private static final DefaultRedisScript<Long> LIMIT_SCRIPT;
+
+    static {
+        LIMIT_SCRIPT = new DefaultRedisScript<>();
+        LIMIT_SCRIPT.setLocation(new ClassPathResource("seckill_limit.lua"));
+        LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 准入的结果
+     */
+    public enum Decision {
+        ACCEPTED, NOT_FOUND, NOT_STARTED, ENDED, SOLD_OUT, LOCAL_LIMITED, USER_LIMITED, GLOBAL_LIMITED
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillWindow seckillWindow;
+
+    /*全局令牌桶每秒补充的令牌数和容量（允许的突发请求数）*/
+    @Value("${hmdp.seckill.admission.global-rate:2000}")
+    private double globalRate;
+
+    @Value("${hmdp.seckill.admission.global-burst:2000}")
+    private int globalBurst;
+
+    /*本节点的令牌桶每秒补充的令牌数和容量*/
+    @Value("${hmdp.seckill.admission.local-rate:1000}")
+    private double localRate;
+
+    @Value("${hmdp.seckill.admission.local-burst:1000}")
+    private int localBurst;
+
+    /*同一个用户对同一张秒杀券两次请求之间至少间隔的毫秒数*/
+    @Value("${hmdp.seckill.admission.user-interval:1000}")
+    private long userInterval;
+
+    /*每张秒杀券在本节点的令牌桶，只为存在并且正在秒杀的秒杀券创建，数量有上限*/
+    private final LRUCache<Long, LocalTokenBucket> localBuckets = CacheUtil.newLRUCache(SECKILL_WINDOW_LOCAL_SIZE);
+
+    /*最近放行过的 用户id:秒杀券id，存活时间就是用户限流的间隔*/
+    private LRUCache<String, Boolean> recentUsers;
+
+    private final Map<Decision, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        recentUsers = CacheUtil.newLRUCache(100000, userInterval);
+        for (Decision decision : Decision.values()) {
+            counters.put(decision, new AtomicLong());
+        }
+    }
+
+    /**
+     * 判断一个秒杀请求是否可以进入
+     */
+    public Decision admit(Long voucherId, Long userId) {
+        Decision decision = decide(voucherId, userId);
+        counters.get(decision).incrementAndGet();
+        return decision;
+    }
+
+    private Decision decide(Long voucherId, Long userId) {
+        /*开始之前的请求不消耗令牌，也不占用用户限流的间隔*/
+        SeckillWindow.Status status = seckillWindow.check(voucherId);
+        if (status == SeckillWindow.Status.NOT_STARTED) {
+            return Decision.NOT_STARTED;
+        }
+        if (status == SeckillWindow.Status.ENDED) {
+            return Decision.ENDED;
+        }
+        if (status == SeckillWindow.Status.NOT_FOUND) {
+            return Decision.NOT_FOUND;
+        }
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Decision.SOLD_OUT;
+        }
+        /*先做用户限流，同一个用户间隔内的重复请求不消耗令牌*/
+        String userKey = userId == null ? null : userId + ":" + voucherId;
+        if (userKey != null && recentUsers.containsKey(userKey)) {
+            return Decision.USER_LIMITED;
+        }
+        LocalTokenBucket localBucket = localBuckets.get(voucherId, () -> new LocalTokenBucket(localRate, localBurst));
+        if (!localBucket.tryAcquire()) {
+            return Decision.LOCAL_LIMITED;
+        }
+        /*拿到令牌之后才记录用户，被令牌桶拒绝的用户可以马上重试*/
+        if (userKey != null) {
+            recentUsers.put(userKey, Boolean.TRUE);
+        }
+        try {
+            /*用户的请求被负载均衡到不同节点时，本地的用户限流拦不住，在脚本中扣减令牌之前再判断一次*/
+            String tag = "{" + voucherId + "}";
+            List<String> keys = userId == null
+                    ? Collections.singletonList(SECKILL_BUCKET_KEY + tag)
+                    : Arrays.asList(SECKILL_BUCKET_KEY + tag, SECKILL_USER_LIMIT_KEY + tag + ":" + userId);
+            Long allowed = stringRedisTemplate.execute(LIMIT_SCRIPT, keys,
+                    String.valueOf(globalRate), String.valueOf(globalBurst), String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(userInterval));
+            if (allowed != null && allowed == 2) {
+                return Decision.USER_LIMITED;
+            }
+            if (allowed != null && allowed == 0) {
+                return Decision.GLOBAL_LIMITED;
+            }
+        } catch (Exception e) {
+            log.warn("全局令牌桶不可用，直接放行，voucherId:{}", voucherId, e);
+        }
+        return Decision.ACCEPTED;
+    }
+
+    /**
+     * 各种结果的次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Decision decision : Decision.values()) {
+            stats.put(decision.name(), counters.get(decision).get());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/*秒杀接口的准入控制，被拒绝的请求直接返回429，不会进入秒杀业务*/
+public class SeckillAdmissionInterceptor implements HandlerInterceptor {
+
+    private SeckillAdmission seckillAdmission;
+
+    public SeckillAdmissionInterceptor(SeckillAdmission seckillAdmission) {
+        this.seckillAdmission = seckillAdmission;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        /*路径 /voucher-order/seckill/{id} 中的秒杀券id*/
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String id = variables == null ? null : variables.get("id");
+        if (id == null) {
+            return true;
+        }
+
+        /*登录拦截器在前面，这里一定能拿到用户*/
+        UserDTO user = UserHolder.getUser();
+        SeckillAdmission.Decision decision = seckillAdmission.admit(Long.valueOf(id), user == null ? null : user.getId());
+        if (decision == SeckillAdmission.Decision.ACCEPTED) {
+            return true;
+        }
+
+        response.setStatus(429);
+        response.setContentType("application/json;charset=UTF-8");
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail(message(decision))));
+        return false;
+    }
+
+    private String message(SeckillAdmission.Decision decision) {
+        switch (decision) {
+            case NOT_FOUND:
+                return "秒杀券不存在";
+            case NOT_STARTED:
+                return "秒杀尚未开始";
+            case ENDED:
+                return "秒杀已经结束";
+            case SOLD_OUT:
+                return "库存不足";
+            default:
+                return "抢购人数过多，请稍后再试";
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.SECKILL_REBALANCE_RETRIES;
+
+/**
+ * 秒杀库存分片
+ * 一个秒杀券的库存拆分到多个分片中，每个分片有自己的库存key和已下单用户集合，用户按id的哈希固定落在一个分片上，
+ * 同一个用户只会在自己的分片中下单，一人一单依然成立，不同用户的请求分散到不同的key上，不会都挤在一个key上
+ * 分片的key用 {优惠券id:分片} 作为hash tag，同一个分片的两个key在集群中落在同一个slot上，不同分片可以在不同的节点上
+ * 用户所在的分片库存用完后，从剩余库存最多的分片调配一半过来再重试
+ * 分片数量配置为1时使用原来的单个key
+ * stream订单队列需要在秒杀脚本中同时写分片的key和订单stream，它们不在同一个slot上，因此只能使用单机或主从的Redis，
+ * 启动时检查，Redis集群下需要使用memory订单队列，分片才能分布到不同的节点上
+ */
+@Slf4j
+@Component
+public class SeckillStockShards {
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    /*新建秒杀券时的分片数量*/
+    @Value("${hmdp.seckill.stock-shards:8}")
+    private int configuredShards;
+
+    /*订单队列的模式，和VoucherOrderServiceImpl中的配置相同*/
+    @Value("${hmdp.seckill.order-queue:stream}")
+    private String orderQueue;
+
+    /*每个秒杀券的分片数量，创建后不会再变化，可以一直缓存*/
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Redis集群下秒杀脚本不能同时写分片的key和订单stream（CROSSSLOT），直接启动失败，而不是每次秒杀都失败
+     */
+    @PostConstruct
+    private void checkOrderQueue() {
+        RedisConnectionFactory connectionFactory = stringRedisTemplate.getConnectionFactory();
+        if (!"stream".equals(orderQueue) || connectionFactory == null) {
+            return;
+        }
+        boolean cluster;
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            cluster = connection instanceof RedisClusterConnection;
+        } finally {
+            connection.close();
+        }
+        if (cluster) {
+            throw new IllegalStateException("Redis集群下不能使用stream订单队列：库存分片的key和订单stream不在同一个slot，"
+                    + "请配置 hmdp.seckill.order-queue=memory，或者使用单机、主从的Redis");
+        }
+    }
+
+    /**
+     * 新建秒杀券时写入库存，库存平均分配到各个分片，余数分给前面的分片
+     */
+    public void seed(Long voucherId, int stock) {
+        int shards = Math.max(1, Math.min(configuredShards, stock));
+        if (shards == 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+            soldOutRegistry.clear(voucherId);
+            return;
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int shard = 0; shard < shards; shard++) {
+            values.put(stockKey(voucherId, shard), String.valueOf(stock / shards + (shard < stock % shards ? 1 : 0)));
+        }
+        stringRedisTemplate.opsForValue().multiSet(values);
+        /*分片数量最后写入，写入之前的请求会按不分片处理，因为单个key不存在而返回库存不足*/
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        shardCounts.put(voucherId, shards);
+        soldOutRegistry.clear(voucherId);
+    }
+
+    /**
+     * 扣减库存并记录下单的用户
+     * @param orderId 订单id
+     * @param streamKey 订单stream，不为null时在同一个脚本中把订单写入stream
+     * @return 0 成功，1 库存不足，2 重复下单
+     */
+    public int reserve(Long voucherId, Long userId, Long orderId, String streamKey) {
+        int shards = shardCount(voucherId);
+        if (shards <= 1) {
+            return execute(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, streamKey, voucherId, userId, orderId);
+        }
+        int shard = shardOf(userId, shards);
+        for (int attempt = 0; ; attempt++) {
+            int result = execute(stockKey(voucherId, shard), orderKey(voucherId, shard), streamKey, voucherId, userId, orderId);
+            if (result != 1 || attempt >= SECKILL_REBALANCE_RETRIES) {
+                return result;
+            }
+            /*自己的分片没有库存了，其他分片也都没有，说明真的卖完了*/
+            if (!rebalance(voucherId, shards, shard)) {
+                return 1;
+            }
+        }
+    }
+
+    /**
+     * 撤销reserve成功的一次秒杀，库存归还到用户所在的分片
+     * 订单写入stream后不能撤销，只用于没有使用stream时订单没能交给后台线程的情况
+     */
+    public void release(Long voucherId, Long userId) {
+        int shards = shardCount(voucherId);
+        List<String> keys = shards <= 1
+                ? Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId)
+                : Arrays.asList(stockKey(voucherId, shardOf(userId, shards)), orderKey(voucherId, shardOf(userId, shards)));
+        stringRedisTemplate.execute(RELEASE_SCRIPT, keys, userId.toString());
+    }
+
+    /**
+     * 剩余的总库存
+     */
+    public long remaining(Long voucherId) {
+        long total = 0;
+        for (Long stock : stocks(voucherId, shardCount(voucherId))) {
+            total += stock;
+        }
+        return total;
+    }
+
+    /**
+     * 秒杀券的分片数量，1表示不分片
+     */
+    public int shardCount(Long voucherId) {
+        Integer cached = shardCounts.get(voucherId);
+        if (cached != null) {
+            return cached;
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+        if (value == null) {
+            /*不缓存不分片的结果，秒杀券可能是之后才创建的*/
+            return 1;
+        }
+        int shards = Integer.parseInt(value);
+        shardCounts.put(voucherId, shards);
+        return shards;
+    }
+
+    /**
+     * 用户所在的分片
+     */
+    public int shardOf(Long userId, int shards) {
+        return Math.floorMod(Long.hashCode(userId), shards);
+    }
+
+    /**
+     * 所有分片的库存key，不分片时只有一个
+     */
+    public List<String> stockKeys(Long voucherId) {
+        int shards = shardCount(voucherId);
+        if (shards <= 1) {
+            return Collections.singletonList(SECKILL_STOCK_KEY + voucherId);
+        }
+        List<String> keys = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            keys.add(stockKey(voucherId, shard));
+        }
+        return keys;
+    }
+
+    /**
+     * 所有分片的已下单用户集合的key，不分片时只有一个
+     */
+    public List<String> orderKeys(Long voucherId) {
+        int shards = shardCount(voucherId);
+        if (shards <= 1) {
+            return Collections.singletonList(SECKILL_ORDER_KEY + voucherId);
+        }
+        List<String> keys = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            keys.add(orderKey(voucherId, shard));
+        }
+        return keys;
+    }
+
+    /**
+     * 把用户加入所在分片的已下单用户集合
+     */
+    public void addBuyer(Long voucherId, Long userId) {
+        int shards = shardCount(voucherId);
+        String key = shards <= 1 ? SECKILL_ORDER_KEY + voucherId : orderKey(voucherId, shardOf(userId, shards));
+        stringRedisTemplate.opsForSet().add(key, userId.toString());
+    }
+
+    /**
+     * 修正剩余的总库存，增加的库存加到第一个分片，减少的库存依次从各个分片中取出
+     * @return 实际修正的数量
+     */
+    public long adjust(Long voucherId, long delta) {
+        List<String> keys = stockKeys(voucherId);
+        if (delta > 0) {
+            stringRedisTemplate.opsForValue().increment(keys.get(0), delta);
+            soldOutRegistry.clear(voucherId);
+            return delta;
+        }
+        long remaining = -delta;
+        for (String key : keys) {
+            if (remaining <= 0) {
+                break;
+            }
+            Long taken = stringRedisTemplate.execute(TAKE_SCRIPT, Collections.singletonList(key), String.valueOf(remaining));
+            remaining -= taken == null ? 0 : taken;
+        }
+        return delta + remaining;
+    }
+
+    public String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private int execute(String stockKey, String orderKey, String streamKey, Long voucherId, Long userId, Long orderId) {
+        List<String> keys = streamKey == null
+                ? Arrays.asList(stockKey, orderKey)
+                : Arrays.asList(stockKey, orderKey, streamKey);
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, keys,
+                userId.toString(), voucherId.toString(), orderId.toString());
+        return result == null ? 1 : result.intValue();
+    }
+
+    /**
+     * 从剩余库存最多的分片取一半调配到指定分片
+     * 取出和加入是两步操作（两个分片可能不在同一个节点上），中间宕机会丢失这部分库存，由对账任务修正
+     * @return 是否调配到了库存
+     */
+    private boolean rebalance(Long voucherId, int shards, int target) {
+        List<Long> stocks = stocks(voucherId, shards);
+        int donor = -1;
+        long max = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            if (shard != target && stocks.get(shard) > max) {
+                donor = shard;
+                max = stocks.get(shard);
+            }
+        }
+        if (donor < 0) {
+            return false;
+        }
+        Long taken = stringRedisTemplate.execute(TAKE_SCRIPT,
+                Collections.singletonList(stockKey(voucherId, donor)), String.valueOf(Math.max(1, max / 2)));
+        if (taken == null || taken <= 0) {
+            /*被其他请求抢先取走了，下次重试时重新选择*/
+            return true;
+        }
+        stringRedisTemplate.opsForValue().increment(stockKey(voucherId, target), taken);
+        log.debug("秒杀券{}从分片{}调配{}个库存到分片{}", voucherId, donor, taken, target);
+        return true;
+    }
+
+    /**
+     * 各个分片的剩余库存，不分片时只有一个
+     */
+    private List<Long> stocks(Long voucherId, int shards) {
+        List<String> keys = new ArrayList<>(shards);
+        if (shards <= 1) {
+            keys.add(SECKILL_STOCK_KEY + voucherId);
+        } else {
+            for (int shard = 0; shard < shards; shard++) {
+                keys.add(stockKey(voucherId, shard));
+            }
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<Long> stocks = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String value = values == null ? null : values.get(i);
+            stocks.add(value == null ? 0L : Math.max(0L, Long.parseLong(value)));
+        }
+        return stocks;
+    }
+}
@@ -0,0 +1,171 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀券的开始和结束时间
+ * 新建秒杀券时写入Redis的hash和本地，秒杀请求只在JVM内比较时间，开始之前和结束之后的请求不访问Redis和数据库
+ * 本地没有时从Redis读取，Redis中也没有说明秒杀券不存在（或者已经结束超过一天），在本地记住一小段时间
+ * 这个功能上线之前创建的秒杀券，在启动时从数据库补写到Redis，请求中不会访问数据库
+ * 时间修改后广播秒杀券id，其他节点删除本地的记录，下次重新从Redis读取
+ * 本地缓存都有容量上限和存活时间，随意构造的秒杀券id不会让内存无限增长，广播丢失时也会在存活时间后恢复
+ */
+@Slf4j
+@Component
+public class SeckillWindow implements ApplicationRunner {
+
+    /**
+     * 时间检查的结果
+     */
+    public enum Status {
+        OPEN, NOT_STARTED, ENDED, NOT_FOUND
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    /*只在启动时补写Redis使用，延迟注入，避免和VoucherServiceImpl循环依赖*/
+    @Lazy
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    /*秒杀券id到开始和结束时间（毫秒）*/
+    private final LRUCache<Long, long[]> windows =
+            CacheUtil.newLRUCache(SECKILL_WINDOW_LOCAL_SIZE, TimeUnit.SECONDS.toMillis(SECKILL_WINDOW_LOCAL_TTL));
+
+    /*Redis中没有时间的秒杀券id*/
+    private final LRUCache<Long, Boolean> missing =
+            CacheUtil.newLRUCache(SECKILL_WINDOW_LOCAL_SIZE, TimeUnit.SECONDS.toMillis(SECKILL_WINDOW_MISSING_TTL));
+
+    /*启动时补写Redis完成之前，Redis中没有时间不代表秒杀券不存在*/
+    private volatile boolean ready = false;
+
+    @PostConstruct
+    private void init() {
+        cacheInvalidationBus.subscribe(SECKILL_WINDOW_CHANNEL, message -> evict(Long.valueOf(message)));
+    }
+
+    /**
+     * 把还没有结束（或者结束不到一天）、Redis中没有时间的秒杀券从数据库补写到Redis
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .isNull("end_time").or().gt("end_time", LocalDateTime.now().minusDays(1))
+                    .list();
+            int loaded = 0;
+            for (SeckillVoucher voucher : vouchers) {
+                if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_WINDOW_KEY + voucher.getVoucherId()))) {
+                    continue;
+                }
+                save(voucher.getVoucherId(), new long[]{toMillis(voucher.getBeginTime(), Long.MIN_VALUE),
+                        toMillis(voucher.getEndTime(), Long.MAX_VALUE)});
+                loaded++;
+            }
+            log.info("秒杀券的时间从数据库补写到Redis，数量:{}", loaded);
+        } catch (Exception e) {
+            /*补写失败时不把Redis中没有的秒杀券当作不存在，由秒杀脚本按库存不足拒绝*/
+            log.error("秒杀券的时间补写到Redis失败", e);
+            return;
+        }
+        ready = true;
+    }
+
+    /**
+     * 保存秒杀券的开始和结束时间，并通知其他节点
+     */
+    public void publish(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime) {
+        long[] window = {toMillis(beginTime, Long.MIN_VALUE), toMillis(endTime, Long.MAX_VALUE)};
+        save(voucherId, window);
+        missing.remove(voucherId);
+        windows.put(voucherId, window);
+        cacheInvalidationBus.broadcast(SECKILL_WINDOW_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 当前时间是否在秒杀时间内
+     */
+    public Status check(Long voucherId) {
+        /*不更新最近访问时间，存活时间从放入时开始计算*/
+        long[] window = windows.get(voucherId, false);
+        if (window == null) {
+            if (missing.containsKey(voucherId)) {
+                return Status.NOT_FOUND;
+            }
+            /*不在computeIfAbsent中加载，访问Redis时不持有任何锁*/
+            window = load(voucherId);
+            if (window == null) {
+                if (!ready) {
+                    return Status.OPEN;
+                }
+                missing.put(voucherId, Boolean.TRUE);
+                return Status.NOT_FOUND;
+            }
+            windows.put(voucherId, window);
+        }
+        long now = System.currentTimeMillis();
+        if (now < window[0]) {
+            return Status.NOT_STARTED;
+        }
+        if (now > window[1]) {
+            return Status.ENDED;
+        }
+        return Status.OPEN;
+    }
+
+    private void evict(Long voucherId) {
+        windows.remove(voucherId);
+        missing.remove(voucherId);
+    }
+
+    private long[] load(Long voucherId) {
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_WINDOW_KEY + voucherId, Arrays.asList("begin", "end"));
+        if (values.get(0) == null || values.get(1) == null) {
+            return null;
+        }
+        return new long[]{Long.parseLong(values.get(0).toString()), Long.parseLong(values.get(1).toString())};
+    }
+
+    private void save(Long voucherId, long[] window) {
+        String key = SECKILL_WINDOW_KEY + voucherId;
+        Map<String, String> values = new HashMap<>();
+        values.put("begin", String.valueOf(window[0]));
+        values.put("end", String.valueOf(window[1]));
+        stringRedisTemplate.opsForHash().putAll(key, values);
+        /*秒杀结束一天后删除*/
+        if (window[1] != Long.MAX_VALUE) {
+            stringRedisTemplate.expire(key, Math.max(0, window[1] - System.currentTimeMillis())
+                    + TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static long toMillis(LocalDateTime time, long defaultValue) {
+        return time == null ? defaultValue : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
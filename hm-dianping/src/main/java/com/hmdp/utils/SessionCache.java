@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录用户的本地缓存，token到UserDTO
+ * 命中时不访问Redis，也不再把Hash转换成UserDTO；Redis中token的过期时间每隔一段时间才刷新一次，而不是每个请求都刷新
+ * 刷新时间单独记录，比本地缓存的存活时间长，本地缓存过期重新加载用户时不会马上再刷新一次
+ * 退出登录时删除本地缓存并广播给其他节点，广播丢失时最多在本地缓存的存活时间之后失效
+ */
+@Component
+public class SessionCache {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    /*本地缓存的存活时间（毫秒）*/
+    @Value("${hmdp.session.local-ttl:10000}")
+    private long localTtl;
+
+    /*同一个token两次刷新Redis过期时间的最小间隔（毫秒）*/
+    @Value("${hmdp.session.refresh-interval:60000}")
+    private long refreshInterval;
+
+    private LRUCache<String, UserDTO> sessions;
+
+    /*最近刷新过过期时间的token，存活时间就是刷新间隔，不随本地缓存一起失效*/
+    private LRUCache<String, Boolean> refreshed;
+
+    @PostConstruct
+    private void init() {
+        sessions = CacheUtil.newLRUCache(LOGIN_SESSION_LOCAL_SIZE, localTtl);
+        refreshed = CacheUtil.newLRUCache(LOGIN_SESSION_LOCAL_SIZE, refreshInterval);
+        cacheInvalidationBus.subscribe(LOGIN_SESSION_CHANNEL, this::removeLocal);
+    }
+
+    /**
+     * 根据token获取登录用户，并按需刷新token的过期时间
+     * @return 没有登录或者已经过期时返回null
+     */
+    public UserDTO get(String token) {
+        String key = LOGIN_USER_KEY + token;
+        /*命中时不更新本地缓存的存活时间，保证退出登录的广播丢失时也会按时失效*/
+        UserDTO user = sessions.get(token, false);
+        if (user == null) {
+            /*通过token拿到redis中的用户数据*/
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+            if (entries.isEmpty()) {
+                return null;
+            }
+            user = BeanUtil.fillBeanWithMap(entries, new UserDTO(), false);
+            sessions.put(token, user);
+        }
+        if (refreshed.containsKey(token)) {
+            return user;
+        }
+        refreshed.put(token, Boolean.TRUE);
+        Boolean exists = stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        if (!Boolean.TRUE.equals(exists)) {
+            /*Redis中的token已经过期或者被删除*/
+            removeLocal(token);
+            return null;
+        }
+        return user;
+    }
+
+    /**
+     * 删除本节点和其他节点中的本地缓存，在删除或修改Redis中的登录信息之后调用
+     */
+    public void invalidate(String token) {
+        removeLocal(token);
+        cacheInvalidationBus.broadcast(LOGIN_SESSION_CHANNEL, token);
+    }
+
+    private void removeLocal(String token) {
+        sessions.remove(token);
+        refreshed.remove(token);
+    }
+}
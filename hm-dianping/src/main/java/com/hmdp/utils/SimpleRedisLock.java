@@ -1,37 +1,66 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
-import cn.hutool.core.util.BooleanUtil;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.data.redis.core.script.RedisScript;
-import org.springframework.stereotype.Component;
 
-import javax.annotation.Resource;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import static com.hmdp.utils.RedisConstants.LOCK_WATCHDOG_TTL;
+
+/**
+ * 基于SET NX的简单分布式锁，不可重入，获取和释放都只需要一次Redis访问
+ * 每次加锁生成一个新的锁标识，只有加锁的这个对象才能释放，同一个线程中的两个锁对象也不会互相释放
+ * 看门狗续期时发现锁已经不属于自己，或者连续失败到超过存活时间，认为锁已经丢失，见isLost
+ */
+@Slf4j
 public class SimpleRedisLock implements ILock{
     private static final String KEY_PREFIX = "lock:";
 
     /*锁标识的前缀*/
-    private static final String ID_PREFIX = UUID.randomUUID().toString()+"-";
+    private static final String ID_PREFIX = UUID.randomUUID().toString(true)+"-";
+
+    /*看门狗续期的线程，所有锁共用*/
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /*锁名称key*/
     private String name;
     private StringRedisTemplate stringRedisTemplate;
 
+    /*本次加锁的标识，释放时确认锁还是自己的*/
+    private volatile String owner;
+
+    /*看门狗的续期任务，不续期时为null*/
+    private volatile ScheduledFuture<?> renewal;
+
+    /*锁在Redis中的过期时间（System.nanoTime），加锁和每次续期成功时更新*/
+    private volatile long expireAt;
+
+    /*续期时发现锁已经不属于自己*/
+    private volatile boolean lost;
+
     /*初始化lua使用的对象*/
     private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
 
     /*通过静态代码块初始化lua*/
     static {
         UNLOCK_SCRIPT = new DefaultRedisScript<>();
         UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
         UNLOCK_SCRIPT.setResultType(Long.class);
-
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
     }
 
     public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate) {
@@ -39,10 +68,6 @@ public class SimpleRedisLock implements ILock{
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
-    /*阻塞队列对象 ， 阻塞队列：有元素时队列进行工作，无元素则进入阻塞状态*/
-
-
-
     /**
      * 尝试获取锁
      * @param timeoutSec
@@ -50,14 +75,75 @@ public class SimpleRedisLock implements ILock{
      */
     @Override
     public boolean tryLock(Long timeoutSec) {
-        /*获取线程的id，作为Redis分布式锁的值，由前缀加上线程id即可*/
-        String theadId = ID_PREFIX + Thread.currentThread().getId();
+        return acquire(TimeUnit.SECONDS.toMillis(timeoutSec));
+    }
+
+    /**
+     * 等待获取锁，获取不到时短暂休眠后重试，获取到之后由看门狗续期
+     */
+    @Override
+    public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        long backoff = 1;
+        while (!acquire(LOCK_WATCHDOG_TTL)) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(backoff, remaining));
+            backoff = Math.min(backoff * 2, 50);
+        }
+        String lockOwner = owner;
+        long interval = LOCK_WATCHDOG_TTL / 3;
+        renewal = WATCHDOG.scheduleAtFixedRate(() -> renew(lockOwner), interval, interval, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void renew(String lockOwner) {
+        long start = System.nanoTime();
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(KEY_PREFIX + name),
+                    lockOwner, LOCK_WATCHDOG_TTL.toString());
+        } catch (Exception e) {
+            /*Redis暂时不可用时继续续期，锁在过期之前还是自己的*/
+            log.warn("锁{}续期失败，{}毫秒后过期", name, TimeUnit.NANOSECONDS.toMillis(expireAt - start), e);
+            return;
+        }
+        if (!lockOwner.equals(owner)) {
+            /*释放之前已经开始的续期，锁已经释放或者重新加锁，结果没有意义*/
+            return;
+        }
+        if (result == null || result == 0) {
+            /*锁已经过期或者被其他节点获取，不再续期*/
+            lost = true;
+            ScheduledFuture<?> task = renewal;
+            if (task != null) {
+                task.cancel(false);
+            }
+            log.error("锁{}已经丢失，停止续期", name);
+            return;
+        }
+        /*从发出请求的时间开始算，不会比Redis中的过期时间晚*/
+        expireAt = start + TimeUnit.MILLISECONDS.toNanos(LOCK_WATCHDOG_TTL);
+    }
 
-        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(KEY_PREFIX + name, theadId, timeoutSec, TimeUnit.SECONDS);
+    private boolean acquire(long ttlMillis) {
+        /*每次加锁使用新的标识*/
+        String lockOwner = ID_PREFIX + UUID.fastUUID().toString(true);
+        long start = System.nanoTime();
+
+        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(KEY_PREFIX + name, lockOwner, ttlMillis, TimeUnit.MILLISECONDS);
 
         /*不直接返回 Boolean包装类，因为自动拆线可能有空指针问题*/
         /*可以使用hutTools的BeanUtils.isTrue。也可以使用Boolean常见True进行比较，返回的也是普通类型*/
-        return Boolean.TRUE.equals(success);
+        if (Boolean.TRUE.equals(success)) {
+            owner = lockOwner;
+            expireAt = start + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+            lost = false;
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -65,11 +151,28 @@ public class SimpleRedisLock implements ILock{
      */
     @Override
     public void unlock() {
+        if (renewal != null) {
+            renewal.cancel(false);
+            renewal = null;
+        }
+        if (owner == null) {
+            return;
+        }
         /*调用lua脚本*/
         stringRedisTemplate.execute(
                 UNLOCK_SCRIPT,
                 Collections.singletonList(KEY_PREFIX+name),
-                ID_PREFIX + Thread.currentThread().getId()
+                owner
         );
+        owner = null;
+    }
+
+    /**
+     * 续期时发现锁不属于自己，或者已经超过了最后一次成功续期后的存活时间
+     * 不访问Redis，可以频繁调用
+     */
+    @Override
+    public boolean isLost() {
+        return owner != null && (lost || System.nanoTime() - expireAt >= 0);
     }
 }
@@ -0,0 +1,56 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 同一个JVM内的请求合并
+ * 多个线程同时加载同一个key时，只有第一个线程真正执行加载逻辑，其他线程等待并共享它的结果（或异常）
+ * 加载结束后立刻移除，不缓存结果，结果的缓存交给调用者（例如CacheClient写入Redis）
+ */
+public class SingleFlight {
+
+    /*正在加载中的key，以及对应的加载结果*/
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        /*已经有线程在加载了，等待它的结果即可*/
+        if (existing != null) {
+            return (R) await(existing);
+        }
+
+        /*当前线程负责加载*/
+        try {
+            R result = loader.get();
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            /*异常也要通知给等待中的线程，否则它们会一直阻塞*/
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private Object await(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            /*把加载线程抛出的原始异常还原出来*/
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 本地生成的雪花算法id，生成时不访问Redis
+ * id由 40位毫秒时间戳（从2022-1-1开始，可以用到2056年）、10位worker id、13位毫秒内的序列号组成
+ * 每毫秒的id数量比 RedisIdWorker 每秒的序列号空间增长得快，从 RedisIdWorker 切换过来后生成的id总是比之前的大，不会重复
+ * worker id在启动时从Redis中租用，后台定时续期，同时记录用到的时间，下一个使用这个worker id的节点从这个时间之后开始
+ * 时间戳和序列号保存在一个AtomicLong中，用CAS更新：
+ * 1. 时钟前进时从新的毫秒开始，序列号归零
+ * 2. 同一毫秒内或者时钟回拨时，继续使用上一次的时间戳，序列号加一；序列号用完时借用下一毫秒
+ * 因此时钟回拨时不会等待也不会报错，id依然递增，回拨期间每毫秒的id数量不变
+ * worker id、它的起始时间和租约的到期时间放在一个不可变的Worker中整体替换，生成id时读取一次：
+ * 1. 生成的时间戳不小于这个worker id的起始时间，换worker id时不会出现新的worker id配上旧的时间
+ * 2. 租约到期（续期一直失败）后不再生成id，直接报错，避免和租到这个worker id的其他节点重复
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id.generator", havingValue = "snowflake")
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    /**
+     * 2022 1-1 0:0 的毫秒数
+     */
+    private static final long BEGIN_MILLIS = 1640995200000L;
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 13;
+    private static final int MAX_WORKERS = 1 << WORKER_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    /*本节点的标识，租约中保存它，续期和释放时确认租约还是自己的*/
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-worker-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /*高位是上一次使用的时间戳（相对BEGIN_MILLIS），低SEQUENCE_BITS位是序列号*/
+    private final AtomicLong state = new AtomicLong();
+
+    /*当前使用的worker id，租用和续期时整体替换*/
+    private volatile Worker worker;
+
+    @PostConstruct
+    private void init() {
+        acquireWorker();
+        long interval = TimeUnit.SECONDS.toMillis(ID_WORKER_LEASE_TTL) / 3;
+        heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        heartbeatExecutor.shutdownNow();
+        /*记录用到的时间后释放租约，其他节点可以立即使用这个worker id*/
+        if (renew()) {
+            stringRedisTemplate.delete(ID_WORKER_KEY + worker.id);
+        }
+    }
+
+    @Override
+    public Long nextId(String keyPrefix) {
+        return nextId(System.currentTimeMillis(), System.nanoTime());
+    }
+
+    /**
+     * 按指定的时间生成id
+     * @param currentMillis 当前的毫秒时间戳
+     * @param currentNanos 当前的System.nanoTime，判断租约是否过期
+     */
+    long nextId(long currentMillis, long currentNanos) {
+        Worker leased = worker;
+        if (currentNanos - leased.leaseDeadline >= 0) {
+            throw new IllegalStateException("worker id " + leased.id + "的租约已经过期，暂时无法生成id");
+        }
+        long now = Math.max(currentMillis - BEGIN_MILLIS, leased.floor);
+        while (true) {
+            long current = state.get();
+            long last = current >>> SEQUENCE_BITS;
+            long next;
+            if (now > last) {
+                next = now << SEQUENCE_BITS;
+            } else if ((current & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = current + 1;
+            } else {
+                next = (last + 1) << SEQUENCE_BITS;
+            }
+            if (state.compareAndSet(current, next)) {
+                return (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS) | leased.bits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    public int getWorkerId() {
+        return worker.id;
+    }
+
+    /**
+     * 从随机位置开始依次尝试租用一个空闲的worker id
+     */
+    private void acquireWorker() {
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKERS);
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            int candidate = (start + i) % MAX_WORKERS;
+            long requestedAt = System.nanoTime();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + candidate, NODE_ID, ID_WORKER_LEASE_TTL, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                useWorker(candidate, requestedAt);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有空闲的worker id");
+    }
+
+    /**
+     * 上一个使用这个worker id的节点最后记录的时间之后，可能还用了一个续期间隔，从那之后开始生成，避免和它的id重复
+     */
+    private void useWorker(int candidate, long requestedAt) {
+        String usedUntil = stringRedisTemplate.opsForValue().get(ID_WORKER_TIME_KEY + candidate);
+        long floor = usedUntil == null ? 0 : Long.parseLong(usedUntil) + TimeUnit.SECONDS.toMillis(ID_WORKER_LEASE_TTL);
+        worker = new Worker(candidate, floor, leaseDeadline(requestedAt));
+        log.info("雪花算法worker id:{}", candidate);
+    }
+
+    private void heartbeat() {
+        Worker current = worker;
+        try {
+            if (!renew()) {
+                /*长时间没有续期（例如长时间GC），租约已经被其他节点拿走了，先停止生成，再换一个worker id*/
+                log.error("worker id {}的租约已经失效，重新租用", current.id);
+                worker = current.withLeaseDeadline(System.nanoTime());
+                acquireWorker();
+            }
+        } catch (Exception e) {
+            log.error("worker id {}续期失败，租约{}毫秒后过期", current.id,
+                    TimeUnit.NANOSECONDS.toMillis(current.leaseDeadline - System.nanoTime()), e);
+        }
+    }
+
+    /**
+     * 续期成功时延长本地记录的租约到期时间
+     */
+    private boolean renew() {
+        Worker current = worker;
+        long requestedAt = System.nanoTime();
+        long usedUntil = Math.max(state.get() >>> SEQUENCE_BITS, current.floor);
+        Long result = stringRedisTemplate.execute(RENEW_SCRIPT,
+                Arrays.asList(ID_WORKER_KEY + current.id, ID_WORKER_TIME_KEY + current.id),
+                NODE_ID, String.valueOf(TimeUnit.SECONDS.toMillis(ID_WORKER_LEASE_TTL)),
+                String.valueOf(usedUntil));
+        if (result == null || result != 1) {
+            return false;
+        }
+        /*只有心跳线程会替换worker，不会覆盖其他线程的修改*/
+        worker = current.withLeaseDeadline(leaseDeadline(requestedAt));
+        return true;
+    }
+
+    /**
+     * 从发出请求的时间开始算，不会比Redis中的过期时间晚
+     */
+    private static long leaseDeadline(long requestedAt) {
+        return requestedAt + TimeUnit.SECONDS.toNanos(ID_WORKER_LEASE_TTL);
+    }
+
+    /**
+     * 租用到的worker id
+     */
+    private static final class Worker {
+
+        private final int id;
+
+        /*已经左移好的worker id*/
+        private final long bits;
+
+        /*生成的时间戳（相对BEGIN_MILLIS）不小于这个值*/
+        private final long floor;
+
+        /*租约的到期时间（System.nanoTime）*/
+        private final long leaseDeadline;
+
+        private Worker(int id, long floor, long leaseDeadline) {
+            this.id = id;
+            this.bits = (long) id << SEQUENCE_BITS;
+            this.floor = floor;
+            this.leaseDeadline = leaseDeadline;
+        }
+
+        private Worker withLeaseDeadline(long leaseDeadline) {
+            return new Worker(id, floor, leaseDeadline);
+        }
+    }
+}
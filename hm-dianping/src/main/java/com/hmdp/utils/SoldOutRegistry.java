@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_RECHECK;
+
+/**
+ * 已售罄的秒杀券，保存在JVM内
+ * 秒杀券卖完之后，后续的请求直接在本地拒绝，不需要再执行一次Lua脚本
+ * 标记售罄和清除标记都会广播给其他节点，消息格式为 +优惠券id / -优惠券id，同一个合并周期内只发送最后一次的状态
+ * 标记有存活时间，过期后下一个请求重新去Redis确认，即使补充库存时没有清除标记（例如直接修改了Redis），也能在这段时间后恢复
+ */
+@Component
+public class SoldOutRegistry {
+
+    @Resource
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    /*优惠券id到标记售罄的时间*/
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        cacheInvalidationBus.subscribe(SECKILL_SOLD_OUT_CHANNEL, message -> {
+            Long voucherId = Long.valueOf(message.substring(1));
+            if (message.charAt(0) == '+') {
+                soldOut.put(voucherId, System.currentTimeMillis());
+            } else {
+                soldOut.remove(voucherId);
+            }
+        });
+    }
+
+    /**
+     * 是否已经售罄
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long markedAt = soldOut.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt > TimeUnit.SECONDS.toMillis(SECKILL_SOLD_OUT_RECHECK)) {
+            soldOut.remove(voucherId, markedAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄，并通知其他节点
+     */
+    public void markSoldOut(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis());
+        cacheInvalidationBus.broadcastState(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString(), "+" + voucherId);
+    }
+
+    /**
+     * 补充库存后清除售罄标记，并通知其他节点
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        cacheInvalidationBus.broadcastState(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString(), "-" + voucherId);
+    }
+}
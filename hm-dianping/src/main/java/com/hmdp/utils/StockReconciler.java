@@ -0,0 +1,292 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.SECKILL_RECONCILE_REPORT_LIMIT;
+import static com.hmdp.utils.SystemConstants.SECKILL_RECONCILE_SCAN_COUNT;
+
+/**
+ * 秒杀库存对账
+ * Redis中的库存和已下单用户集合，与数据库中的库存和订单数量，正常情况下满足：
+ * Redis库存 = 数据库库存 - 处理中的订单数，Redis已下单用户数 = 数据库订单数 + 处理中的订单数
+ * 每次只检查一批秒杀券：用SCAN游标找出Redis中所有的秒杀券放入待检查队列，之后每次从队列中取一批，队列空了再重新SCAN
+ * 一批秒杀券的Redis数据在一个pipeline中读取，数据库只执行一次按优惠券分组的统计（走 voucher_id, user_id 索引）
+ * 数量对不上时，如果和上一轮看到的数据完全一样（这段时间没有新的订单），说明不是处理中的订单造成的，再逐个用户比较并记录到报告中
+ * 开启修复时以数据库为准：数据库中有订单、Redis中没有的用户加入已下单集合，Redis库存修正为 数据库库存 - Redis中有、数据库中没有的用户数
+ * Redis中有、数据库中没有的用户只报告不修复，这些用户已经被告知抢购成功，需要人工处理
+ */
+@Slf4j
+@Component
+public class StockReconciler {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private LockFactory lockFactory;
+
+    @Value("${hmdp.seckill.reconcile.enabled:true}")
+    private boolean enabled;
+
+    /*每次检查的秒杀券数量*/
+    @Value("${hmdp.seckill.reconcile.batch-size:100}")
+    private int batchSize;
+
+    /*是否自动修复，不开启时只报告*/
+    @Value("${hmdp.seckill.reconcile.repair:false}")
+    private boolean repair;
+
+    /*待检查的秒杀券，只在持有对账锁的线程中访问*/
+    private final Deque<Long> queue = new ArrayDeque<>();
+
+    /*每张秒杀券上一轮看到的数据：Redis库存、Redis已下单用户数、数据库库存、数据库订单数*/
+    private final Map<Long, long[]> previous = new ConcurrentHashMap<>();
+
+    /*最近发现的不一致，秒杀券id到详情*/
+    private final Map<Long, Map<String, Object>> discrepancies = new ConcurrentHashMap<>();
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong repaired = new AtomicLong();
+    private volatile LocalDateTime lastRunTime;
+
+    /**
+     * 定时对账，多个节点中同一时间只有一个在执行
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.reconcile.interval:60000}")
+    public void scheduledReconcile() {
+        if (!enabled) {
+            return;
+        }
+        /*不等待，获取到之后由看门狗续期，对账时间再长也不会被其他节点同时执行*/
+        ILock lock = lockFactory.fastLock(SECKILL_RECONCILE_LOCK);
+        try {
+            if (!lock.tryLock(0, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            reconcileNextBatch(lock);
+        } catch (Exception e) {
+            log.error("秒杀库存对账失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 对账的统计信息和最近发现的不一致
+     */
+    public Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("enabled", enabled);
+        report.put("repair", repair);
+        report.put("runs", runs.get());
+        report.put("checked", checked.get());
+        report.put("repaired", repaired.get());
+        report.put("lastRunTime", lastRunTime);
+        report.put("discrepancies", new ArrayList<>(discrepancies.values()));
+        return report;
+    }
+
+    private void reconcileNextBatch(ILock lock) {
+        if (queue.isEmpty()) {
+            queue.addAll(scanVoucherIds());
+        }
+        List<Long> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && !queue.isEmpty()) {
+            batch.add(queue.poll());
+        }
+        if (!batch.isEmpty()) {
+            reconcile(batch, lock);
+        }
+        runs.incrementAndGet();
+        lastRunTime = LocalDateTime.now();
+    }
+
+    /**
+     * 用SCAN找出Redis中所有有库存key的秒杀券，不会像KEYS一样阻塞Redis
+     * 库存key为 seckill:stock:优惠券id 或者 seckill:stock:{优惠券id:分片}
+     */
+    private Set<Long> scanVoucherIds() {
+        Set<Long> voucherIds = new LinkedHashSet<>();
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(SECKILL_STOCK_KEY + "*").count(SECKILL_RECONCILE_SCAN_COUNT).build();
+        try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                connection -> connection.scan(options))) {
+            while (cursor.hasNext()) {
+                String id = new String(cursor.next(), StandardCharsets.UTF_8).substring(SECKILL_STOCK_KEY.length());
+                if (id.startsWith("{")) {
+                    id = id.substring(1, id.indexOf(':'));
+                }
+                try {
+                    voucherIds.add(Long.valueOf(id));
+                } catch (NumberFormatException e) {
+                    log.warn("无法识别的秒杀库存key:{}{}", SECKILL_STOCK_KEY, id);
+                }
+            }
+        } catch (Exception e) {
+            log.error("扫描秒杀库存key失败", e);
+        }
+        return voucherIds;
+    }
+
+    private void reconcile(List<Long> voucherIds, ILock lock) {
+        /*一个pipeline读取这批秒杀券所有分片的库存和已下单用户数*/
+        Map<Long, List<String>> stockKeys = new LinkedHashMap<>();
+        Map<Long, List<String>> orderKeys = new LinkedHashMap<>();
+        for (Long voucherId : voucherIds) {
+            stockKeys.put(voucherId, seckillStockShards.stockKeys(voucherId));
+            orderKeys.put(voucherId, seckillStockShards.orderKeys(voucherId));
+        }
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long voucherId : voucherIds) {
+                stockKeys.get(voucherId).forEach(stringConnection::get);
+                orderKeys.get(voucherId).forEach(stringConnection::sCard);
+            }
+            return null;
+        });
+
+        /*数据库中的库存和按优惠券统计的订单数量，各查询一次*/
+        Map<Long, Integer> dbStocks = seckillVoucherService.listByIds(voucherIds).stream()
+                .collect(Collectors.toMap(SeckillVoucher::getVoucherId, SeckillVoucher::getStock));
+        Map<Long, Long> dbSold = new HashMap<>();
+        for (Map<String, Object> row : voucherOrderMapper.countByVoucher(voucherIds)) {
+            dbSold.put(((Number) row.get("voucherId")).longValue(), ((Number) row.get("sold")).longValue());
+        }
+
+        int index = 0;
+        for (Long voucherId : voucherIds) {
+            /*锁丢失后其他节点可能已经开始对账，不再比较和修复，剩下的秒杀券重新SCAN时再检查*/
+            if (lock.isLost()) {
+                log.warn("对账锁已经丢失，停止本轮对账，voucherId:{}", voucherId);
+                return;
+            }
+            long redisStock = 0;
+            for (int i = 0; i < stockKeys.get(voucherId).size(); i++) {
+                Object value = values.get(index++);
+                redisStock += value == null ? 0 : Math.max(0, Long.parseLong(value.toString()));
+            }
+            long redisSold = 0;
+            for (int i = 0; i < orderKeys.get(voucherId).size(); i++) {
+                Object value = values.get(index++);
+                redisSold += value == null ? 0 : ((Number) value).longValue();
+            }
+            Integer dbStock = dbStocks.get(voucherId);
+            if (dbStock == null) {
+                /*数据库中已经没有这张秒杀券了，Redis中的数据没有意义，不处理*/
+                continue;
+            }
+            checked.incrementAndGet();
+            long[] snapshot = {redisStock, redisSold, dbStock, dbSold.getOrDefault(voucherId, 0L)};
+            compare(voucherId, snapshot);
+        }
+    }
+
+    private void compare(Long voucherId, long[] snapshot) {
+        long[] last = previous.put(voucherId, snapshot);
+        if (snapshot[0] == snapshot[2] && snapshot[1] == snapshot[3]) {
+            discrepancies.remove(voucherId);
+            previous.remove(voucherId);
+            return;
+        }
+        /*数据还在变化，差异可能是处理中的订单，下一轮再看*/
+        if (!Arrays.equals(last, snapshot)) {
+            return;
+        }
+
+        /*逐个用户比较Redis和数据库*/
+        Set<String> redisBuyers = new HashSet<>();
+        for (String key : seckillStockShards.orderKeys(voucherId)) {
+            Set<String> members = stringRedisTemplate.opsForSet().members(key);
+            if (members != null) {
+                redisBuyers.addAll(members);
+            }
+        }
+        Set<String> dbBuyers = new HashSet<>();
+        List<Object> userIds = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                .select("user_id").eq("voucher_id", voucherId));
+        userIds.forEach(userId -> dbBuyers.add(userId.toString()));
+
+        Set<String> missingInRedis = new HashSet<>(dbBuyers);
+        missingInRedis.removeAll(redisBuyers);
+        Set<String> missingInDb = new HashSet<>(redisBuyers);
+        missingInDb.removeAll(dbBuyers);
+        /*Redis中有、数据库中没有的用户占用了Redis的库存，扣除它们之后Redis库存应该等于数据库库存*/
+        long stockDrift = snapshot[0] - (snapshot[2] - missingInDb.size());
+
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("voucherId", voucherId);
+        item.put("redisStock", snapshot[0]);
+        item.put("redisSold", snapshot[1]);
+        item.put("dbStock", snapshot[2]);
+        item.put("dbSold", snapshot[3]);
+        item.put("stockDrift", stockDrift);
+        item.put("missingInRedis", missingInRedis.size());
+        item.put("missingInDb", missingInDb.stream().limit(SECKILL_RECONCILE_REPORT_LIMIT).collect(Collectors.toList()));
+        item.put("detectedAt", LocalDateTime.now());
+        log.warn("秒杀库存不一致:{}", item);
+
+        if (repair && (stockDrift != 0 || !missingInRedis.isEmpty())) {
+            for (String userId : missingInRedis) {
+                seckillStockShards.addBuyer(voucherId, Long.valueOf(userId));
+            }
+            long adjusted = seckillStockShards.adjust(voucherId, -stockDrift);
+            item.put("repaired", adjusted == -stockDrift);
+            repaired.incrementAndGet();
+            /*修复后数据变化了，下一轮重新确认*/
+            previous.remove(voucherId);
+            log.warn("已修复秒杀库存，voucherId:{}，补充的已下单用户:{}，修正的库存:{}", voucherId, missingInRedis.size(), adjusted);
+        }
+
+        if (discrepancies.size() < SECKILL_RECONCILE_REPORT_LIMIT || discrepancies.containsKey(voucherId)) {
+            discrepancies.put(voucherId, item);
+        }
+    }
+}
@@ -5,4 +5,45 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+
+    /*布隆过滤器预计的元素数量、误判率，以及启动时分批加载id的每批数量*/
+    public static final long BLOOM_FILTER_EXPECTED_INSERTIONS = 1000000L;
+    public static final double BLOOM_FILTER_FPP = 0.01;
+    public static final int BLOOM_FILTER_LOAD_BATCH = 1000;
+    /*比已加载的最大id大、还没有加载的id，最多放行到 最大id + 上次加载后新增的数量 + 这个余量，余量用于丢失的广播和自增id的空洞*/
+    public static final long BLOOM_FILTER_NEW_ID_MARGIN = 100L;
+
+    /*缓存重建线程数，以及等待重建的队列长度，队列满了之后新的重建任务直接丢弃*/
+    public static final int CACHE_REBUILD_THREADS = 10;
+    public static final int CACHE_REBUILD_QUEUE_SIZE = 1000;
+
+    /*热点key检测：count-min sketch的行数、每行的计数器数量，每多少次读取采样一次，最多记录的热点key数量*/
+    public static final int HOT_KEY_SKETCH_DEPTH = 4;
+    public static final int HOT_KEY_SKETCH_WIDTH = 4096;
+    public static final int HOT_KEY_SAMPLE_RATE = 4;
+    public static final int HOT_KEY_TOP_K = 100;
+
+    /*秒杀库存分片不足时，从其他分片调配库存后重试的次数*/
+    public static final int SECKILL_REBALANCE_RETRIES = 3;
+
+    /*秒杀订单批量写入数据库：每批最多的订单数量，以及收到第一个订单后最多等待多久（毫秒）凑成一批*/
+    public static final int SECKILL_ORDER_BATCH_SIZE = 200;
+    public static final long SECKILL_ORDER_BATCH_WAIT = 50L;
+
+    /*每个订单处理通道的队列容量*/
+    public static final int SECKILL_ORDER_LANE_CAPACITY = 256 * 1024;
+
+    /*接管订单时一次最多扫描的pending消息数量*/
+    public static final int SECKILL_ORDER_RECLAIM_SCAN = 10000;
+
+    /*清理已确认的订单消息时每次删除的数量，以及每轮最多删除的次数*/
+    public static final int SECKILL_ORDER_TRIM_BATCH = 1000;
+    public static final int SECKILL_ORDER_TRIM_ROUNDS = 100;
+
+    /*对账时每次SCAN的COUNT，以及报告中最多保留的不一致记录数*/
+    public static final int SECKILL_RECONCILE_SCAN_COUNT = 1000;
+    public static final int SECKILL_RECONCILE_REPORT_LIMIT = 100;
+
+    /*id号段用掉多少比例后提前申请下一段*/
+    public static final double ID_SEGMENT_PREFETCH_RATIO = 0.8;
 }
@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 两级锁：先获取JVM内的锁，只有本节点的胜出者才去Redis中获取分布式锁
+ * 同一个节点的多个线程竞争同一把锁时，只有一个线程访问Redis，其他线程在本地等待或者直接失败
+ * 本地锁和线程绑定，获取和释放必须在同一个线程中
+ */
+public class TwoTierLock implements ILock {
+
+    private final Lock local;
+    private final ILock distributed;
+
+    public TwoTierLock(Lock local, ILock distributed) {
+        this.local = local;
+        this.distributed = distributed;
+    }
+
+    @Override
+    public boolean tryLock(Long timeoutSec) {
+        if (!local.tryLock()) {
+            /*本节点的其他线程正在持有，不需要再访问Redis*/
+            return false;
+        }
+        boolean success = false;
+        try {
+            success = distributed.tryLock(timeoutSec);
+        } finally {
+            if (!success) {
+                local.unlock();
+            }
+        }
+        return success;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        if (!local.tryLock(waitTime, unit)) {
+            return false;
+        }
+        boolean success = false;
+        try {
+            /*本地等待用掉的时间从总的等待时间中扣除*/
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            success = distributed.tryLock(remaining, TimeUnit.NANOSECONDS);
+        } finally {
+            if (!success) {
+                local.unlock();
+            }
+        }
+        return success;
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            distributed.unlock();
+        } finally {
+            local.unlock();
+        }
+    }
+
+    @Override
+    public boolean isLost() {
+        return distributed.isLost();
+    }
+}
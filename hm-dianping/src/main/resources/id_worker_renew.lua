@@ -0,0 +1,10 @@
+--[[续期雪花算法的worker id租约，只有租约仍然属于自己时才续期，并记录当前用到的时间]]
+--[[KEYS[1] 租约key，KEYS[2] 这个worker id最后用到的时间（毫秒）]]
+--[[ARGV[1] 本节点的标识，ARGV[2] 租约时间（毫秒），ARGV[3] 本节点当前用到的时间（毫秒）]]
+if (redis.call('get', KEYS[1]) ~= ARGV[1]) then
+    --[[租约已经过期或者被其他节点拿走了]]
+    return 0
+end
+redis.call('pexpire', KEYS[1], ARGV[2])
+redis.call('set', KEYS[2], ARGV[3])
+return 1
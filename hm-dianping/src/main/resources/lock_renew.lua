@@ -0,0 +1,6 @@
+--[[锁的续期，只有锁仍然属于自己时才续期]]
+--[[KEYS[1] 锁的key，ARGV[1] 锁标识，ARGV[2] 续期后的存活时间（毫秒）]]
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
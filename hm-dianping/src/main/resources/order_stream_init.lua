@@ -0,0 +1,7 @@
+--[[创建订单stream的消费者组，stream不存在时一起创建]]
+--[[消费者组已经存在时（BUSYGROUP）忽略错误]]
+local result = redis.pcall('xgroup', 'create', KEYS[1], ARGV[1], '0', 'MKSTREAM')
+if (type(result) == 'table' and result.err) then
+    return 0
+end
+return 1
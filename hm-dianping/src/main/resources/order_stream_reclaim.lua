@@ -0,0 +1,52 @@
+--[[把已经宕机的消费者长时间没有确认的订单转移给当前消费者]]
+--[[消费者宕机后，它已经读取但还没写入数据库的订单会一直处于pending状态，需要由其他节点接管]]
+--[[只看空闲时间不够：存活的节点的订单可能在本地通道中排队超过空闲时间，被接管后会被两个节点重复写入]]
+--[[所以还要求消费者的心跳key已经过期，心跳key是根据消费者名称拼出来的，只适用于单节点Redis]]
+local streamKey = KEYS[1]
+local group = ARGV[1]
+local consumer = ARGV[2]
+local minIdle = tonumber(ARGV[3])
+local count = tonumber(ARGV[4])
+local heartbeatPrefix = ARGV[5]
+--[[一次最多扫描的pending条数，防止pending列表很长时脚本执行太久]]
+local maxScan = tonumber(ARGV[6])
+
+--[[消息id的下一个id，用于分页，XPENDING的起始id是包含的]]
+local function nextId(id)
+    local ms, seq = string.match(id, '(%d+)-(%d+)')
+    return ms .. '-' .. string.format('%d', tonumber(seq) + 1)
+end
+
+--[[每个消费者是否存活，同一个消费者只查询一次]]
+local alive = {}
+local ids = {}
+local start = '-'
+local scanned = 0
+while (#ids < count and scanned < maxScan) do
+    --[[每一项为：消息id、消费者、空闲时间（毫秒）、投递次数]]
+    local pending = redis.call('xpending', streamKey, group, start, '+', count)
+    for _, entry in ipairs(pending) do
+        local owner = entry[2]
+        if (owner ~= consumer and tonumber(entry[3]) >= minIdle) then
+            if (alive[owner] == nil) then
+                alive[owner] = redis.call('exists', heartbeatPrefix .. owner) == 1
+            end
+            if (not alive[owner] and #ids < count) then
+                table.insert(ids, entry[1])
+            end
+        end
+    end
+    scanned = scanned + #pending
+    if (#pending < count) then
+        break
+    end
+    start = nextId(pending[#pending][1])
+end
+
+if (#ids == 0) then
+    return 0
+end
+
+--[[只转移所有权，消息内容由当前消费者之后从自己的pending列表中读取]]
+redis.call('xclaim', streamKey, group, consumer, minIdle, unpack(ids))
+return #ids
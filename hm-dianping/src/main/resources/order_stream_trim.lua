@@ -0,0 +1,57 @@
+--[[删除已经确认的订单消息，订单stream不会无限增长]]
+--[[已经确认的消息：不晚于消费者组最后投递的id，并且早于pending列表中最早的消息]]
+--[[没有使用XTRIM MINID（需要Redis 6.2），而是用XRANGE找出一批消息后XDEL，每次最多删除ARGV[2]条]]
+local streamKey = KEYS[1]
+local group = ARGV[1]
+local count = tonumber(ARGV[2])
+
+local function parse(id)
+    local ms, seq = string.match(id, '(%d+)-(%d+)')
+    return tonumber(ms), tonumber(seq)
+end
+
+local function less(a, b)
+    local aMs, aSeq = parse(a)
+    local bMs, bSeq = parse(b)
+    return aMs < bMs or (aMs == bMs and aSeq < bSeq)
+end
+
+--[[XINFO GROUPS 的每一项是 name g1 consumers n pending n last-delivered-id id 这样的键值对]]
+local lastDelivered = nil
+for _, info in ipairs(redis.call('xinfo', 'groups', streamKey)) do
+    local name, delivered
+    for i = 1, #info, 2 do
+        if (info[i] == 'name') then
+            name = info[i + 1]
+        elseif (info[i] == 'last-delivered-id') then
+            delivered = info[i + 1]
+        end
+    end
+    if (name == group) then
+        lastDelivered = delivered
+    end
+end
+if (lastDelivered == nil or lastDelivered == '0-0') then
+    return 0
+end
+
+--[[XPENDING的摘要：数量、最早的id、最晚的id、每个消费者的数量]]
+local summary = redis.call('xpending', streamKey, group)
+local bound = lastDelivered
+local inclusive = true
+if (tonumber(summary[1]) > 0 and not less(lastDelivered, summary[2])) then
+    --[[最早的未确认消息不能删除]]
+    bound = summary[2]
+    inclusive = false
+end
+
+local ids = {}
+for _, entry in ipairs(redis.call('xrange', streamKey, '-', bound, 'COUNT', count)) do
+    if (inclusive or entry[1] ~= bound) then
+        table.insert(ids, entry[1])
+    end
+end
+if (#ids == 0) then
+    return 0
+end
+return redis.call('xdel', streamKey, unpack(ids))
@@ -1,33 +1,43 @@
---[[查询指定的优惠券库存，和用户是否下单过，所以优惠券id和用户id都需要通过传输获取到]]
---[[优惠券id]]
-local voucherId = ARGV[1]
-local userId = ARGV[2]
-
---[[通过前缀加id就是redis中的键]]
+--[[查询指定的优惠券库存，和用户是否下单过]]
+--[[库存key和已下单用户集合的key通过KEYS传入，分片模式下是用户所在分片的两个key]]
 --[[优惠券库存]]
-local stockKey= 'seckill:stock:' .. voucherId
+local stockKey = KEYS[1]
 --[[订单id，代表已经下过单的用户集合]]
-local orderKey= 'seckill:order:' .. voucherId
+local orderKey = KEYS[2]
+--[[订单stream，不传时由调用方自己保存订单（内存队列模式）]]
+local streamKey = KEYS[3]
+--[[用户id、优惠券id、订单id]]
+local userId = ARGV[1]
+local voucherId = ARGV[2]
+local orderId = ARGV[3]
 
 --[[脚本业务]]
---[[判断库存是否>0]]
-if (tonumber(redis.call('get',stockKey))<=0) then
-    --[[返回1，说明库存不足]]
-    return 1;
-end
-
 --[[判断用户是否已经下过单，如果set集合中有此用户id说明已经下过单了]]
-if (redis.call('sismember',orderKey,userId)==1) then
+--[[先判断重复下单，分片库存不足时调用方会从其他分片调配库存，已经下过单的用户不需要调配]]
+if (redis.call('sismember', orderKey, userId) == 1) then
     --[[重复下单，返回2]]
     return 2;
 end
 
+--[[判断库存是否>0，库存key不存在也按库存不足处理]]
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
+    --[[返回1，说明库存不足]]
+    return 1;
+end
+
 --[[走到这，说明库存充足，且未下过单]]
 --[[库存减一]]
-redis.call('incrby',stockKey,-1)
+redis.call('incrby', stockKey, -1)
 
 --[[将用户id添加到已购买的集合中]]
-redis.call('sadd',orderKey,userId)
+redis.call('sadd', orderKey, userId)
+
+--[[订单和扣减库存在同一个脚本中写入stream，要么都成功要么都不成功，节点宕机也不会丢失订单]]
+--[[不使用MAXLEN，超过长度时会删掉还没有处理的订单，已经确认的消息由消费者定期删除（order_stream_trim.lua）]]
+if (streamKey ~= nil) then
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+end
 
 --[[运行正常，则返回0]]
 return 0
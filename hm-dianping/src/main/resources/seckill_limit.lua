@@ -0,0 +1,45 @@
+--[[秒杀券的全局令牌桶，所有节点共享，按时间匀速补充令牌，桶满之后不再增加]]
+--[[返回 1 放行，0 没有令牌，2 用户在间隔内已经被放行过]]
+local key = KEYS[1]
+--[[用户的限流标记，没有用户时不传]]
+local userKey = KEYS[2]
+--[[每秒补充的令牌数、桶的容量、当前时间（毫秒）、用户两次请求的最小间隔（毫秒）]]
+local rate = tonumber(ARGV[1])
+local capacity = tonumber(ARGV[2])
+local now = tonumber(ARGV[3])
+local userInterval = tonumber(ARGV[4])
+
+--[[先判断用户限流，同一个用户的重复请求不消耗令牌]]
+if (userKey and redis.call('exists', userKey) == 1) then
+    return 2
+end
+
+local bucket = redis.call('hmget', key, 'tokens', 'ts')
+local tokens = tonumber(bucket[1])
+local ts = tonumber(bucket[2])
+--[[第一次访问时桶是满的]]
+if (tokens == nil or ts == nil) then
+    tokens = capacity
+    ts = now
+end
+
+--[[按经过的时间补充令牌，各个节点的时钟可能有偏差，时间不能倒退]]
+if (now > ts) then
+    tokens = math.min(capacity, tokens + (now - ts) * rate / 1000)
+    ts = now
+end
+
+local allowed = 0
+if (tokens >= 1) then
+    tokens = tokens - 1
+    allowed = 1
+end
+
+redis.call('hset', key, 'tokens', tostring(tokens), 'ts', tostring(ts))
+--[[桶补满所需的时间之后，key已经没有意义了，自动删除]]
+redis.call('pexpire', key, math.ceil(capacity * 1000 / rate) + 1000)
+--[[拿到令牌之后才记录用户，没有拿到令牌的用户可以马上重试]]
+if (allowed == 1 and userKey and userInterval > 0) then
+    redis.call('set', userKey, '1', 'PX', userInterval)
+end
+return allowed
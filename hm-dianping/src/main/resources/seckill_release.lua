@@ -0,0 +1,11 @@
+--[[撤销一次秒杀：把用户从已下单集合中移除，并归还一个库存]]
+--[[只有用户确实在集合中时才归还，重复调用不会多归还库存]]
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local userId = ARGV[1]
+
+if (redis.call('srem', orderKey, userId) == 0) then
+    return 0
+end
+redis.call('incrby', stockKey, 1)
+return 1
@@ -0,0 +1,13 @@
+--[[从一个库存分片中取出最多ARGV[1]个库存，用于分片之间的库存调配]]
+local stockKey = KEYS[1]
+local max = tonumber(ARGV[1])
+
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+
+--[[实际取出的数量不超过剩余的库存]]
+local taken = math.min(stock, max)
+redis.call('incrby', stockKey, -taken)
+return taken
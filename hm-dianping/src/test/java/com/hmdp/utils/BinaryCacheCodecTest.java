@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    @Test
+    void roundTripsSupportedFields() {
+        Item item = item();
+
+        byte[] bytes = codec.encode(item, null);
+
+        assertTrue(codec.supports(bytes));
+        assertNull(codec.readExpireTime(bytes));
+        assertEquals(item, codec.decode(bytes, Item.class));
+    }
+
+    @Test
+    void keepsNullFields() {
+        Item item = new Item();
+        item.setId(1L);
+
+        Item decoded = codec.decode(codec.encode(item, null), Item.class);
+
+        assertEquals(item, decoded);
+        assertNull(decoded.getName());
+        assertNull(decoded.getUpdateTime());
+    }
+
+    @Test
+    void readsExpireTimeFromHeader() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(30).truncatedTo(ChronoUnit.MILLIS);
+
+        byte[] bytes = codec.encode(item(), expireTime);
+
+        assertEquals(expireTime, codec.readExpireTime(bytes));
+        assertEquals(item(), codec.decode(bytes, Item.class));
+    }
+
+    @Test
+    void encodesNullValue() {
+        LocalDateTime expireTime = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+
+        byte[] bytes = codec.encode(null, expireTime);
+
+        assertTrue(codec.supports(bytes));
+        assertEquals(expireTime, codec.readExpireTime(bytes));
+        assertNull(codec.decode(bytes, Item.class));
+    }
+
+    @Test
+    void changedSchemaIsTreatedAsMiss() {
+        byte[] bytes = codec.encode(item(), null);
+
+        /*字段结构不同，指纹对不上，按未命中处理*/
+        assertNull(codec.decode(bytes, OtherItem.class));
+    }
+
+    @Test
+    void fallsBackToJsonForUnsupportedFields() {
+        Priced priced = new Priced();
+        priced.setId(7L);
+        priced.setPrice(new BigDecimal("12.50"));
+        LocalDateTime expireTime = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+
+        byte[] bytes = codec.encode(priced, expireTime);
+
+        assertTrue(codec.supports(bytes));
+        assertEquals(expireTime, codec.readExpireTime(bytes));
+        /*头部之后是对象的json*/
+        String json = new String(bytes, 10, bytes.length - 10, StandardCharsets.UTF_8);
+        assertTrue(json.startsWith("{"), json);
+        Priced decoded = codec.decode(bytes, Priced.class);
+        assertEquals(7L, decoded.getId());
+        assertEquals(0, new BigDecimal("12.50").compareTo(decoded.getPrice()));
+    }
+
+    @Test
+    void coexistsWithJsonCodec() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+        byte[] binary = codec.encode(item(), expireTime);
+        byte[] json = jsonCodec.encode(item(), expireTime);
+
+        /*读取时按内容选择codec，两种格式不会互相误认*/
+        assertTrue(codec.supports(binary));
+        assertFalse(jsonCodec.supports(binary));
+        assertTrue(jsonCodec.supports(json));
+        assertFalse(codec.supports(json));
+
+        assertEquals(expireTime, jsonCodec.readExpireTime(json));
+        assertEquals(item(), jsonCodec.decode(json, Item.class));
+    }
+
+    private static Item item() {
+        Item item = new Item();
+        item.setId(1L);
+        item.setName("103茶餐厅");
+        item.setScore(37);
+        item.setAvgPrice(80L);
+        item.setX(120.149192);
+        item.setOpen(true);
+        item.setCount(3);
+        /*json格式中时间只保存到毫秒*/
+        item.setUpdateTime(LocalDateTime.of(2022, 1, 1, 12, 30, 15, 123000000));
+        return item;
+    }
+
+    @Data
+    public static class Item {
+        private Long id;
+        private String name;
+        private Integer score;
+        private long avgPrice;
+        private Double x;
+        private Boolean open;
+        private int count;
+        private LocalDateTime updateTime;
+    }
+
+    @Data
+    public static class OtherItem {
+        private Long id;
+        private String name;
+    }
+
+    @Data
+    public static class Priced {
+        private Long id;
+        private BigDecimal price;
+    }
+}
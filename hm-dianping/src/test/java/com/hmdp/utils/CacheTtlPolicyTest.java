@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static com.hmdp.utils.RedisConstants.CACHE_ADAPTIVE_MIN_READS;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheTtlPolicyTest {
+
+    private static final long BASE = 30 * 60 * 1000L;
+
+    @Test
+    void jitterStaysWithinRatio() {
+        CacheTtlPolicy policy = new CacheTtlPolicy(0.2, 1);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 10000; i++) {
+            long ttl = policy.jitter(BASE);
+            assertTrue(ttl >= BASE && ttl <= BASE * 1.2, "过期时间超出抖动范围:" + ttl);
+            min = Math.min(min, ttl);
+            max = Math.max(max, ttl);
+        }
+        /*确实有随机抖动，不是固定值*/
+        assertTrue(max - min > BASE * 0.1);
+    }
+
+    @Test
+    void noJitterKeepsBase() {
+        CacheTtlPolicy policy = new CacheTtlPolicy(0, 1);
+        assertEquals(BASE, policy.jitter(BASE));
+        assertEquals(BASE, policy.apply(BASE, 1000000, 0));
+        assertEquals(0, new CacheTtlPolicy(0.2, 1).jitter(0));
+    }
+
+    @Test
+    void fewReadsAreNotAmplified() {
+        CacheTtlPolicy policy = new CacheTtlPolicy(0, 4);
+        assertEquals(BASE, policy.apply(BASE, CACHE_ADAPTIVE_MIN_READS - 1, 0));
+    }
+
+    @Test
+    void readHeavyKeysAreAmplifiedByLogOfReadWriteRatio() {
+        CacheTtlPolicy policy = new CacheTtlPolicy(0, 4);
+        /*读写比100为2倍，1000为3倍*/
+        assertEquals(BASE * 2, policy.apply(BASE, 1000, 9), BASE * 0.01);
+        assertEquals(BASE * 3, policy.apply(BASE, 10000, 9), BASE * 0.01);
+        /*读写比小于10时不放大*/
+        assertEquals(BASE, policy.apply(BASE, 500, 99));
+    }
+
+    @Test
+    void amplificationIsCappedByMaxFactor() {
+        CacheTtlPolicy policy = new CacheTtlPolicy(0, 2);
+        assertEquals(BASE * 2, policy.apply(BASE, 100000000, 0));
+    }
+
+    @Test
+    void maxFactorBelowOneMeansNoAmplification() {
+        CacheTtlPolicy policy = new CacheTtlPolicy(0, 0.5);
+        assertEquals(1, policy.getMaxFactor(), 0);
+        assertEquals(BASE, policy.apply(BASE, 100000000, 0));
+    }
+
+    @Test
+    void jitterIsAppliedOnTopOfAmplification() {
+        CacheTtlPolicy policy = new CacheTtlPolicy(0.2, 2);
+        for (int i = 0; i < 1000; i++) {
+            long ttl = policy.apply(BASE, 100000000, 0);
+            assertTrue(ttl >= BASE * 2 && ttl <= BASE * 2 * 1.2, "过期时间超出范围:" + ttl);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdBloomFilterTest {
+
+    @Test
+    void insertedIdsAreAlwaysFound() {
+        IdBloomFilter filter = new IdBloomFilter(10000, 0.01);
+        for (long id = 1; id <= 10000; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= 10000; id++) {
+            assertTrue(filter.mightContain(id), "id " + id + " 被误判为不存在");
+        }
+        assertEquals(10000, filter.getInsertions());
+    }
+
+    @Test
+    void falsePositiveRateStaysNearExpected() {
+        IdBloomFilter filter = new IdBloomFilter(10000, 0.01);
+        for (long id = 1; id <= 10000; id++) {
+            filter.put(id);
+        }
+        int falsePositives = 0;
+        int probes = 100000;
+        for (long id = 1_000_000; id < 1_000_000 + probes; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / probes;
+        /*连续的自增id经过混淆后应该均匀分布，误判率不应明显高于期望值*/
+        assertTrue(rate < 0.02, "误判率过高:" + rate);
+        assertEquals(0.01, filter.currentFpp(), 0.005);
+    }
+
+    @Test
+    void emptyFilterContainsNothing() {
+        IdBloomFilter filter = new IdBloomFilter(1000, 0.01);
+        for (long id = 0; id < 1000; id++) {
+            assertFalse(filter.mightContain(id));
+        }
+        assertEquals(0.0, filter.currentFpp(), 0);
+    }
+
+    @Test
+    void sizedFromExpectedInsertionsAndFpp() {
+        IdBloomFilter filter = new IdBloomFilter(1000000, 0.01);
+        /*m = -n * ln(p) / (ln2)^2 约为 9585059 位，向上取整到64的倍数；k = m / n * ln2 约为 7*/
+        assertEquals(0, filter.getBitSize() % 64);
+        assertTrue(filter.getBitSize() >= 9585059 && filter.getBitSize() < 9585059 + 64);
+        assertEquals(7, filter.getHashCount());
+        assertEquals(filter.getBitSize() / 8, filter.memoryBytes());
+    }
+
+    @Test
+    void repeatedPutDoesNotSetMoreBits() {
+        IdBloomFilter filter = new IdBloomFilter(1000, 0.01);
+        filter.put(42);
+        double fpp = filter.currentFpp();
+        filter.put(42);
+        assertEquals(fpp, filter.currentFpp(), 0);
+        assertEquals(2, filter.getInsertions());
+    }
+}
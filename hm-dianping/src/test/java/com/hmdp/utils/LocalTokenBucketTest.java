@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalTokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void startsFullAndAllowsBurstUpToCapacity() {
+        LocalTokenBucket bucket = new LocalTokenBucket(10, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(0));
+        }
+        assertFalse(bucket.tryAcquire(0));
+    }
+
+    @Test
+    void refillsAtRate() {
+        LocalTokenBucket bucket = new LocalTokenBucket(10, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            bucket.tryAcquire(0);
+        }
+        /*每秒10个，100毫秒补充1个*/
+        assertFalse(bucket.tryAcquire(SECOND / 20));
+        assertTrue(bucket.tryAcquire(SECOND / 10));
+        assertFalse(bucket.tryAcquire(SECOND / 10));
+    }
+
+    @Test
+    void partialTokensAccumulateAcrossCalls() {
+        LocalTokenBucket bucket = new LocalTokenBucket(10, 1, 0);
+        assertTrue(bucket.tryAcquire(0));
+        /*每次只补充半个令牌，两次之后才够一个*/
+        assertFalse(bucket.tryAcquire(SECOND / 20));
+        assertTrue(bucket.tryAcquire(SECOND / 10));
+    }
+
+    @Test
+    void idleTimeDoesNotExceedCapacity() {
+        LocalTokenBucket bucket = new LocalTokenBucket(10, 3, 0);
+        int acquired = 0;
+        while (bucket.tryAcquire(3600 * SECOND)) {
+            acquired++;
+        }
+        assertEquals(3, acquired);
+    }
+
+    @Test
+    void concurrentAcquiresNeverExceedTokens() throws Exception {
+        /*速率极低，测试期间不会补充*/
+        LocalTokenBucket bucket = new LocalTokenBucket(0.001, 1000);
+        int threads = 8;
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < 500; j++) {
+                        if (bucket.tryAcquire()) {
+                            acquired.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1000, acquired.get());
+    }
+}
@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RECONCILE_LOCK;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LockFactoryTest {
+
+    private ValueOperations<String, String> valueOperations;
+    private LockFactory lockFactory;
+
+    /*在另一个线程中持有锁，本地锁和线程绑定*/
+    private final ExecutorService holder = Executors.newSingleThreadExecutor();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+
+        lockFactory = new LockFactory();
+        ReflectionTestUtils.setField(lockFactory, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(lockFactory, "localTier", true);
+        ReflectionTestUtils.setField(lockFactory, "localStripes", 64);
+        ReflectionTestUtils.invokeMethod(lockFactory, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        holder.shutdownNow();
+    }
+
+    @Test
+    void sameNameInAnotherThreadFailsLocally() throws Exception {
+        assertTrue(holder.submit(() -> lockFactory.fastLock("shop:1").tryLock(10L)).get(5, TimeUnit.SECONDS));
+
+        assertFalse(lockFactory.fastLock("shop:1").tryLock(10L));
+
+        /*第二次获取在本地锁上就失败了，没有访问Redis*/
+        verify(valueOperations, times(1)).setIfAbsent(eq("lock:shop:1"), anyString(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    void otherFamiliesNeverShareLocalLocks() throws Exception {
+        /*持有shop:*的每一段本地锁*/
+        List<ILock> held = holder.submit(() -> {
+            List<ILock> locks = new ArrayList<>();
+            for (int id = 0; id < 64 * 16; id++) {
+                ILock lock = lockFactory.fastLock("shop:" + id);
+                assertTrue(lock.tryLock(10L));
+                locks.add(lock);
+            }
+            return locks;
+        }).get(5, TimeUnit.SECONDS);
+
+        ILock reconcileLock = lockFactory.fastLock(SECKILL_RECONCILE_LOCK);
+        assertTrue(reconcileLock.tryLock(0, TimeUnit.SECONDS));
+        reconcileLock.unlock();
+        assertTrue(lockFactory.fastLock("blog:1").tryLock(10L));
+        assertEquals(64 * 16, held.size());
+    }
+
+    @Test
+    void statsGroupNamesByFamily() {
+        lockFactory.fastLock("shop:1").tryLock(10L);
+        lockFactory.fastLock("shop:2").tryLock(10L);
+        lockFactory.fastLock(SECKILL_RECONCILE_LOCK).tryLock(10L);
+
+        assertTrue(lockFactory.stats().containsKey("shop:*"));
+        assertTrue(lockFactory.stats().containsKey(SECKILL_RECONCILE_LOCK));
+        assertEquals(2, lockFactory.stats().size());
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MeteredLockTest {
+
+    private final LockMetrics metrics = new LockMetrics();
+    private final FakeLock delegate = new FakeLock();
+    private final MeteredLock lock = new MeteredLock(delegate, metrics);
+
+    @Test
+    void reentrantAcquireCountsOnlyOutermost() throws InterruptedException {
+        assertTrue(lock.tryLock(1, TimeUnit.SECONDS));
+        assertTrue(lock.tryLock(1, TimeUnit.SECONDS));
+        assertTrue(lock.tryLock(10L));
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(1L, snapshot.get("attempts"));
+        assertEquals(1L, snapshot.get("holding"));
+        assertEquals(3, delegate.holds);
+    }
+
+    @Test
+    void releaseIsRecordedWhenOutermostUnlocks() throws InterruptedException {
+        lock.tryLock(1, TimeUnit.SECONDS);
+        lock.tryLock(1, TimeUnit.SECONDS);
+
+        lock.unlock();
+        assertEquals(1L, metrics.snapshot().get("holding"));
+        assertEquals(1, delegate.holds);
+
+        lock.unlock();
+        assertEquals(0L, metrics.snapshot().get("holding"));
+        assertEquals(0, delegate.holds);
+    }
+
+    @Test
+    void failedAcquireIsCountedAndNotHeld() throws InterruptedException {
+        delegate.available = false;
+
+        assertFalse(lock.tryLock(0, TimeUnit.SECONDS));
+        assertFalse(lock.tryLock(10L));
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(2L, snapshot.get("attempts"));
+        assertEquals(2L, snapshot.get("failures"));
+        assertEquals(2L, snapshot.get("contended"));
+        assertEquals(0L, snapshot.get("holding"));
+    }
+
+    @Test
+    void unlockWithoutHoldingDoesNotRecordRelease() throws InterruptedException {
+        lock.unlock();
+        assertEquals(0L, metrics.snapshot().get("holding"));
+
+        /*多余的unlock不会让之后的获取和释放计数错位*/
+        lock.tryLock(1, TimeUnit.SECONDS);
+        assertEquals(1L, metrics.snapshot().get("holding"));
+        lock.unlock();
+        assertEquals(0L, metrics.snapshot().get("holding"));
+    }
+
+    @Test
+    void interruptedAcquireIsRecordedAsFailure() {
+        delegate.interrupt = true;
+
+        assertThrows(InterruptedException.class, () -> lock.tryLock(1, TimeUnit.SECONDS));
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(1L, snapshot.get("attempts"));
+        assertEquals(1L, snapshot.get("failures"));
+        assertEquals(0L, snapshot.get("holding"));
+    }
+
+    @Test
+    void lostStateComesFromDelegate() throws InterruptedException {
+        lock.tryLock(1, TimeUnit.SECONDS);
+        assertFalse(lock.isLost());
+
+        delegate.lost = true;
+        assertTrue(lock.isLost());
+    }
+
+    /**
+     * 可重入的假锁，记录持有的层数
+     */
+    private static class FakeLock implements ILock {
+        private int holds;
+        private boolean available = true;
+        private boolean interrupt;
+        private boolean lost;
+
+        @Override
+        public boolean tryLock(Long timeoutSec) {
+            return acquire();
+        }
+
+        @Override
+        public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
+            if (interrupt) {
+                throw new InterruptedException();
+            }
+            return acquire();
+        }
+
+        private boolean acquire() {
+            if (!available) {
+                return false;
+            }
+            holds++;
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            if (holds > 0) {
+                holds--;
+            }
+        }
+
+        @Override
+        public boolean isLost() {
+            return lost;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RedisIdWorkerTest {
+
+    private static final long LAST_SECOND_OF_DAY = LocalDateTime.of(2023, 3, 1, 23, 59, 59).toEpochSecond(ZoneOffset.UTC);
+    private static final long FIRST_SECOND_OF_NEXT_DAY = LAST_SECOND_OF_DAY + 1;
+    private static final String DAY_KEY = "inc:order:2023:03:01";
+    private static final String NEXT_DAY_KEY = "inc:order:2023:03:02";
+
+    /*模拟Redis中的计数器*/
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private RedisIdWorker idWorker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment(anyString())).thenAnswer(invocation -> counter(invocation.getArgument(0)).incrementAndGet());
+        when(valueOperations.increment(anyString(), anyLong())).thenAnswer(invocation -> {
+            Long delta = invocation.getArgument(1);
+            return counter(invocation.getArgument(0)).addAndGet(delta);
+        });
+        idWorker = new RedisIdWorker(stringRedisTemplate);
+        ReflectionTestUtils.setField(idWorker, "segmentSize", 10);
+    }
+
+    @Test
+    void sequencesAreContiguousAcrossSegments() {
+        long last = 0;
+        for (int i = 1; i <= 25; i++) {
+            long id = idWorker.nextId("order", LAST_SECOND_OF_DAY);
+            assertEquals(i, sequence(id));
+            assertTrue(id > last);
+            last = id;
+        }
+    }
+
+    @Test
+    void newDayStartsNewSegmentAndDropsPrefetchedOne() {
+        long last = 0;
+        /*用到号段的80%时会在后台申请前一天的下一段*/
+        for (int i = 1; i <= 9; i++) {
+            last = idWorker.nextId("order", LAST_SECOND_OF_DAY);
+        }
+
+        long id = idWorker.nextId("order", FIRST_SECOND_OF_NEXT_DAY);
+
+        /*跨天后从新一天的key申请号段，序列号重新从1开始*/
+        assertEquals(1, sequence(id));
+        assertEquals(10, counter(NEXT_DAY_KEY).get());
+        /*前一天预取的号段被丢弃，没有被使用*/
+        assertEquals(20, counter(DAY_KEY).get());
+        assertTrue(id > last);
+        assertEquals(FIRST_SECOND_OF_NEXT_DAY - 1640995200L, id >>> 32);
+        assertEquals(2, sequence(idWorker.nextId("order", FIRST_SECOND_OF_NEXT_DAY)));
+    }
+
+    @Test
+    void prefixesUseSeparateSegments() {
+        assertEquals(1, sequence(idWorker.nextId("order", LAST_SECOND_OF_DAY)));
+        assertEquals(1, sequence(idWorker.nextId("blog", LAST_SECOND_OF_DAY)));
+        assertEquals(2, sequence(idWorker.nextId("order", LAST_SECOND_OF_DAY)));
+    }
+
+    @Test
+    void withoutSegmentsEveryIdIncrementsTheDayKey() {
+        ReflectionTestUtils.setField(idWorker, "segmentSize", 1);
+
+        assertEquals(1, sequence(idWorker.nextId("order", LAST_SECOND_OF_DAY)));
+        assertEquals(2, sequence(idWorker.nextId("order", LAST_SECOND_OF_DAY)));
+        assertEquals(1, sequence(idWorker.nextId("order", FIRST_SECOND_OF_NEXT_DAY)));
+        assertEquals(2, counter(DAY_KEY).get());
+        assertEquals(1, counter(NEXT_DAY_KEY).get());
+    }
+
+    private AtomicLong counter(String key) {
+        return counters.computeIfAbsent(key, k -> new AtomicLong());
+    }
+
+    private static long sequence(long id) {
+        return id & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        int threads = 8;
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            /*第一个调用者阻塞在加载中，其他调用者都应该等待它的结果*/
+            Future<String> leader = executor.submit(() -> singleFlight.execute("shop:1", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return "value";
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            List<Future<String>> followers = new ArrayList<>();
+            for (int i = 1; i < threads; i++) {
+                followers.add(executor.submit(() -> singleFlight.execute("shop:1", () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                })));
+            }
+            /*等待其他调用者进入等待状态*/
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+            for (Future<String> follower : followers) {
+                assertEquals("value", follower.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void exceptionIsSharedWithWaitingCallers() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> leader = executor.submit(() -> singleFlight.execute("shop:1", () -> {
+                loading.countDown();
+                await(release);
+                throw new IllegalStateException("load failed");
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<Object> follower = executor.submit(() -> singleFlight.execute("shop:1", () -> "other"));
+            Thread.sleep(100);
+            release.countDown();
+
+            assertSame(IllegalStateException.class, assertThrows(Exception.class,
+                    () -> leader.get(5, TimeUnit.SECONDS)).getCause().getClass());
+            Throwable cause = assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS)).getCause();
+            assertTrue(cause instanceof IllegalStateException);
+            assertEquals("load failed", cause.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void resultIsNotCachedAfterLoadCompletes() {
+        AtomicInteger loads = new AtomicInteger();
+        assertEquals(1, (int) singleFlight.execute("shop:1", loads::incrementAndGet));
+        assertEquals(2, (int) singleFlight.execute("shop:1", loads::incrementAndGet));
+    }
+
+    @Test
+    void differentKeysLoadIndependently() {
+        assertEquals("a", singleFlight.execute("shop:1", () -> "a"));
+        assertEquals("b", singleFlight.execute("shop:2", () -> "b"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final long BEGIN_MILLIS = 1640995200000L;
+    private static final long NOW = BEGIN_MILLIS + TimeUnit.DAYS.toMillis(400);
+    private static final int SEQUENCE_BITS = 13;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private StringRedisTemplate stringRedisTemplate;
+    private ValueOperations<String, String> valueOperations;
+    private SnowflakeIdGenerator generator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        generator = new SnowflakeIdGenerator();
+        ReflectionTestUtils.setField(generator, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    @Test
+    void idsCarryTimestampWorkerAndSequence() {
+        acquireWorker();
+
+        long first = generator.nextId(NOW, System.nanoTime());
+        long second = generator.nextId(NOW, System.nanoTime());
+
+        assertEquals(NOW - BEGIN_MILLIS, timestamp(first));
+        assertEquals(generator.getWorkerId(), workerId(first));
+        assertEquals(0, sequence(first));
+        assertEquals(1, sequence(second));
+        assertEquals(timestamp(first), timestamp(second));
+    }
+
+    @Test
+    void clockRollbackKeepsIdsIncreasing() {
+        acquireWorker();
+        long before = generator.nextId(NOW, System.nanoTime());
+
+        /*时钟回拨1秒，继续使用上一次的时间戳，序列号加一*/
+        long after = generator.nextId(NOW - 1000, System.nanoTime());
+
+        assertTrue(after > before);
+        assertEquals(timestamp(before), timestamp(after));
+        assertEquals(sequence(before) + 1, sequence(after));
+
+        /*时钟追上之后从新的毫秒开始*/
+        long caughtUp = generator.nextId(NOW + 1, System.nanoTime());
+        assertEquals(NOW + 1 - BEGIN_MILLIS, timestamp(caughtUp));
+        assertEquals(0, sequence(caughtUp));
+    }
+
+    @Test
+    void sequenceOverflowBorrowsNextMillisecond() {
+        acquireWorker();
+        Set<Long> ids = new HashSet<>();
+        long last = 0;
+        for (int i = 0; i <= SEQUENCE_MASK; i++) {
+            long id = generator.nextId(NOW, System.nanoTime());
+            assertTrue(id > last);
+            ids.add(id);
+            last = id;
+        }
+        assertEquals(SEQUENCE_MASK, sequence(last));
+
+        /*同一毫秒内序列号用完，借用下一毫秒*/
+        long borrowed = generator.nextId(NOW, System.nanoTime());
+        assertEquals(NOW + 1 - BEGIN_MILLIS, timestamp(borrowed));
+        assertEquals(0, sequence(borrowed));
+        assertTrue(ids.add(borrowed));
+
+        /*真实时间到了下一毫秒时接着借用时的序列号*/
+        assertEquals(1, sequence(generator.nextId(NOW + 1, System.nanoTime())));
+    }
+
+    @Test
+    void startsAfterPreviousHolderOfWorkerId() {
+        /*上一个节点最后记录的时间加上一个续期间隔*/
+        long usedUntil = NOW - BEGIN_MILLIS;
+        when(valueOperations.get(anyString())).thenReturn(String.valueOf(usedUntil));
+        acquireWorker();
+
+        long id = generator.nextId(NOW, System.nanoTime());
+
+        assertEquals(usedUntil + TimeUnit.SECONDS.toMillis(RedisConstants.ID_WORKER_LEASE_TTL), timestamp(id));
+    }
+
+    @Test
+    void expiredLeaseStopsIdGeneration() {
+        acquireWorker();
+        long afterLease = System.nanoTime() + TimeUnit.SECONDS.toNanos(RedisConstants.ID_WORKER_LEASE_TTL);
+
+        assertThrows(IllegalStateException.class, () -> generator.nextId(NOW, afterLease));
+    }
+
+    @Test
+    void lostLeaseStopsIdGenerationUntilReacquired() {
+        acquireWorker();
+        /*续期时发现租约已经被其他节点拿走，且没有空闲的worker id*/
+        when(stringRedisTemplate.execute(ArgumentMatchers.<RedisScript<Long>>any(), anyList(), any())).thenReturn(0L);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+
+        ReflectionTestUtils.invokeMethod(generator, "heartbeat");
+
+        assertThrows(IllegalStateException.class, () -> generator.nextId(NOW, System.nanoTime()));
+
+        /*有空闲的worker id之后，下一次心跳重新租用*/
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        ReflectionTestUtils.invokeMethod(generator, "heartbeat");
+        assertEquals(NOW - BEGIN_MILLIS, timestamp(generator.nextId(NOW, System.nanoTime())));
+    }
+
+    @Test
+    void renewExtendsLease() {
+        acquireWorker();
+        when(stringRedisTemplate.execute(ArgumentMatchers.<RedisScript<Long>>any(), anyList(), any())).thenReturn(1L);
+        long start = System.nanoTime();
+
+        ReflectionTestUtils.invokeMethod(generator, "heartbeat");
+
+        /*续期之后，租约从续期时开始计算*/
+        long almostExpired = start + TimeUnit.SECONDS.toNanos(RedisConstants.ID_WORKER_LEASE_TTL) - 1;
+        assertTrue(generator.nextId(NOW, almostExpired) > 0);
+    }
+
+    private void acquireWorker() {
+        ReflectionTestUtils.invokeMethod(generator, "acquireWorker");
+    }
+
+    private static long timestamp(long id) {
+        return id >>> (10 + SEQUENCE_BITS);
+    }
+
+    private static long workerId(long id) {
+        return (id >>> SEQUENCE_BITS) & ((1 << 10) - 1);
+    }
+
+    private static long sequence(long id) {
+        return id & SEQUENCE_MASK;
+    }
+}
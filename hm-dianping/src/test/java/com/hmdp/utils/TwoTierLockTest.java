@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TwoTierLockTest {
+
+    private final ReentrantLock local = new ReentrantLock();
+    private final FakeLock distributed = new FakeLock();
+    private final TwoTierLock lock = new TwoTierLock(local, distributed);
+
+    @Test
+    void localContentionFailsWithoutDistributedAttempt() throws Exception {
+        holdLocalInOtherThread(() -> {
+            assertFalse(lock.tryLock(10L));
+            assertFalse(lock.tryLock(0, TimeUnit.SECONDS));
+            return null;
+        });
+
+        /*本节点的其他线程持有时不访问Redis*/
+        assertEquals(0, distributed.attempts);
+    }
+
+    @Test
+    void distributedFailureReleasesLocalLock() throws InterruptedException {
+        distributed.available = false;
+
+        assertFalse(lock.tryLock(10L));
+        assertFalse(lock.tryLock(0, TimeUnit.SECONDS));
+
+        assertFalse(local.isLocked());
+        assertEquals(2, distributed.attempts);
+    }
+
+    @Test
+    void reentrantAcquireAndReleaseKeepTiersInStep() throws InterruptedException {
+        assertTrue(lock.tryLock(1, TimeUnit.SECONDS));
+        assertTrue(lock.tryLock(1, TimeUnit.SECONDS));
+        assertEquals(2, local.getHoldCount());
+        assertEquals(2, distributed.holds);
+
+        lock.unlock();
+        assertEquals(1, local.getHoldCount());
+        assertEquals(1, distributed.holds);
+
+        lock.unlock();
+        assertFalse(local.isLocked());
+        assertEquals(0, distributed.holds);
+    }
+
+    @Test
+    void localLockIsReleasedWhenDistributedUnlockFails() {
+        assertTrue(lock.tryLock(10L));
+        distributed.failUnlock = true;
+
+        assertThrows(IllegalStateException.class, lock::unlock);
+
+        assertFalse(local.isLocked());
+    }
+
+    @Test
+    void localWaitIsDeductedFromDistributedWait() throws Exception {
+        holdLocalInOtherThread(() -> {
+            /*本地锁在200毫秒后释放，剩下的时间留给Redis*/
+            CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return lock.tryLock(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(200);
+            return waiter;
+        }).thenAccept(acquired -> assertTrue(acquired)).get(5, TimeUnit.SECONDS);
+
+        assertTrue(distributed.lastWaitNanos < TimeUnit.MILLISECONDS.toNanos(900));
+        assertTrue(distributed.lastWaitNanos > 0);
+    }
+
+    @Test
+    void lostStateComesFromDistributedLock() {
+        assertFalse(lock.isLost());
+        distributed.lost = true;
+        assertTrue(lock.isLost());
+    }
+
+    /**
+     * 在另一个线程中持有本地锁，执行完action后释放
+     */
+    private <T> T holdLocalInOtherThread(Action<T> action) throws Exception {
+        CompletableFuture<Void> locked = new CompletableFuture<>();
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        Thread holder = new Thread(() -> {
+            local.lock();
+            try {
+                locked.complete(null);
+                release.join();
+            } finally {
+                local.unlock();
+            }
+        });
+        holder.start();
+        locked.get(5, TimeUnit.SECONDS);
+        try {
+            return action.run();
+        } finally {
+            release.complete(null);
+            holder.join(5000);
+        }
+    }
+
+    private interface Action<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * 可重入的假分布式锁，记录获取次数和持有的层数
+     */
+    private static class FakeLock implements ILock {
+        private int attempts;
+        private int holds;
+        private long lastWaitNanos;
+        private boolean available = true;
+        private boolean failUnlock;
+        private boolean lost;
+
+        @Override
+        public boolean tryLock(Long timeoutSec) {
+            return acquire();
+        }
+
+        @Override
+        public boolean tryLock(long waitTime, TimeUnit unit) {
+            lastWaitNanos = unit.toNanos(waitTime);
+            return acquire();
+        }
+
+        private boolean acquire() {
+            attempts++;
+            if (!available) {
+                return false;
+            }
+            holds++;
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            if (failUnlock) {
+                throw new IllegalStateException("Redis不可用");
+            }
+            holds--;
+        }
+
+        @Override
+        public boolean isLost() {
+            return lost;
+        }
+    }
+}